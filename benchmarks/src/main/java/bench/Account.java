@@ -0,0 +1,37 @@
+package bench;
+
+import annotations.Column;
+import annotations.NotNull;
+import annotations.PrimaryKey;
+
+/**
+ * Narrow entity with public fields, written and read through direct field handles
+ */
+public class Account {
+
+    @PrimaryKey
+    public int id;
+
+    @Column
+    @NotNull
+    public String owner;
+
+    @Column
+    public long balance;
+
+    public Account(){
+    }
+
+    public Account(int i){
+        this.owner = "owner" + i;
+        this.balance = i * 100L;
+    }
+
+    public int returnPKeyG(){
+        return id;
+    }
+
+    public void returnPKeyS(int id){
+        this.id = id;
+    }
+}
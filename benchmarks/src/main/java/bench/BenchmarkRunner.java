@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, writing JSON results unless told otherwise
+ * Results land in results/jmh-yyyyMMdd-HHmmss.json so runs can be kept and compared between releases
+ * <pre>
+ * java -jar target/benchmarks.jar                      every benchmark
+ * java -jar target/benchmarks.jar Mapping -p rows=1000000
+ * java -jar target/benchmarks.jar -rf csv -rff out.csv  any JMH option still works
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if(!commandLine.getResultFormat().hasValue() && !commandLine.getResult().hasValue()){
+            File results = new File("results");
+            if(!results.isDirectory() && !results.mkdirs()){
+                throw new IllegalStateException("Cannot create " + results.getAbsolutePath());
+            }
+            String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            options.resultFormat(ResultFormatType.JSON)
+                    .result(new File(results, "jmh-" + stamp + ".json").getPath());
+        }
+
+        new Runner(options.build()).run();
+    }
+}
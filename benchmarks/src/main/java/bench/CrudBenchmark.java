@@ -0,0 +1,133 @@
+package bench;
+
+import dao.CacheSettings;
+import dao.EntityCache;
+import dao.ObjectDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.ConnectionPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-row round trips through ObjectDao against in-memory H2, so the numbers are the orm's overhead plus H2's, no network
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrudBenchmark {
+
+    private static final int SEEDED = 10_000;
+    private static final int BATCH = 1_000;
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+    private ObjectDao cachedDao;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        pool = new ConnectionPool("jdbc:h2:mem:crud;DB_CLOSE_DELAY=-1", "sa", "", 4);
+
+        objectDao = new ObjectDao(pool);
+        objectDao.setEntityCache(new EntityCache());
+        objectDao.bootstrap(Account.class, Customer.class);
+
+        List<Customer> customers = new ArrayList<>();
+        for(int i = 0; i < SEEDED; i++){
+            customers.add(new Customer(i));
+        }
+        objectDao.createObjects(customers);
+        next = SEEDED;
+
+        EntityCache cache = new EntityCache();
+        cache.configure(Customer.class, new CacheSettings(SEEDED, 0));
+        cachedDao = new ObjectDao(pool);
+        cachedDao.setEntityCache(cache);
+
+        //fill the cache up front, one query instead of SEEDED misses during measurement
+        List<Integer> keys = new ArrayList<>();
+        for(int key = 1; key <= SEEDED; key++){
+            keys.add(key);
+        }
+        cachedDao.readObjects(Customer.class, keys);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        objectDao.dropTable(Account.class);
+        objectDao.dropTable(Customer.class);
+        pool.close();
+    }
+
+    @Benchmark
+    public Account createNarrow() throws Exception {
+        Account account = new Account(next++);
+        objectDao.createObject(account);
+        return account;
+    }
+
+    @Benchmark
+    public Customer createWide() throws Exception {
+        Customer customer = new Customer(next++);
+        objectDao.createObject(customer);
+        return customer;
+    }
+
+    @Benchmark
+    public int createBatch() throws Exception {
+        List<Account> accounts = new ArrayList<>(BATCH);
+        for(int i = 0; i < BATCH; i++){
+            accounts.add(new Account(next++));
+        }
+        return objectDao.createObjects(accounts);
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        return objectDao.readObject(Customer.class, randomKey());
+    }
+
+    //a warm second-level cache, no connection is borrowed
+    @Benchmark
+    public Object readCached() throws Exception {
+        return cachedDao.readObject(Customer.class, randomKey());
+    }
+
+    @Benchmark
+    public int update() throws Exception {
+        Customer customer = new Customer(next++);
+        customer.setId(randomKey());
+        return objectDao.updateObject(customer);
+    }
+
+    //insert then delete by key, so the table stays the same size
+    @Benchmark
+    public void createAndDelete() throws Exception {
+        Account account = new Account(next++);
+        objectDao.createObject(account);
+        objectDao.deleteObject(Account.class, account.id);
+    }
+
+
+    private static int randomKey(){
+        //keys are 1..SEEDED from the serial column
+        return ThreadLocalRandom.current().nextInt(SEEDED) + 1;
+    }
+}
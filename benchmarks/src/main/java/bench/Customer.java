@@ -0,0 +1,175 @@
+package bench;
+
+import annotations.Column;
+import annotations.NotNull;
+import annotations.PrimaryKey;
+import annotations.Unique;
+
+/**
+ * Wide entity with private fields behind getters and setters, one column of every mapped type
+ */
+public class Customer {
+
+    @PrimaryKey
+    private int id;
+
+    @Column
+    @NotNull
+    private String firstName;
+
+    @Column
+    private String lastName;
+
+    @Column
+    @Unique
+    private String email;
+
+    @Column
+    private String city;
+
+    @Column
+    private int age;
+
+    @Column
+    private int visits;
+
+    @Column
+    private long lifetimeCents;
+
+    @Column
+    private double score;
+
+    @Column
+    private float discount;
+
+    @Column
+    private short tier;
+
+    @Column
+    private boolean active;
+
+    @Column
+    private char grade;
+
+    public Customer(){
+    }
+
+    public Customer(int i){
+        this.firstName = "first" + i;
+        this.lastName = "last" + i;
+        this.email = "customer" + i + "@example.com";
+        this.city = "city" + (i % 100);
+        this.age = 18 + i % 60;
+        this.visits = i % 1000;
+        this.lifetimeCents = i * 1250L;
+        this.score = i / 7.0;
+        this.discount = (i % 20) / 100f;
+        this.tier = (short) (i % 5);
+        this.active = i % 3 != 0;
+        this.grade = (char) ('A' + i % 5);
+    }
+
+    public int getId(){
+        return id;
+    }
+
+    public void setId(int id){
+        this.id = id;
+    }
+
+    public String getFirstName(){
+        return firstName;
+    }
+
+    public void setFirstName(String firstName){
+        this.firstName = firstName;
+    }
+
+    public String getLastName(){
+        return lastName;
+    }
+
+    public void setLastName(String lastName){
+        this.lastName = lastName;
+    }
+
+    public String getEmail(){
+        return email;
+    }
+
+    public void setEmail(String email){
+        this.email = email;
+    }
+
+    public String getCity(){
+        return city;
+    }
+
+    public void setCity(String city){
+        this.city = city;
+    }
+
+    public int getAge(){
+        return age;
+    }
+
+    public void setAge(int age){
+        this.age = age;
+    }
+
+    public int getVisits(){
+        return visits;
+    }
+
+    public void setVisits(int visits){
+        this.visits = visits;
+    }
+
+    public long getLifetimeCents(){
+        return lifetimeCents;
+    }
+
+    public void setLifetimeCents(long lifetimeCents){
+        this.lifetimeCents = lifetimeCents;
+    }
+
+    public double getScore(){
+        return score;
+    }
+
+    public void setScore(double score){
+        this.score = score;
+    }
+
+    public float getDiscount(){
+        return discount;
+    }
+
+    public void setDiscount(float discount){
+        this.discount = discount;
+    }
+
+    public short getTier(){
+        return tier;
+    }
+
+    public void setTier(short tier){
+        this.tier = tier;
+    }
+
+    public boolean isActive(){
+        return active;
+    }
+
+    public void setActive(boolean active){
+        this.active = active;
+    }
+
+    public char getGrade(){
+        return grade;
+    }
+
+    public void setGrade(char grade){
+        this.grade = grade;
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import dao.EntityCache;
+import dao.ObjectDao;
+import dao.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.ConnectionPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole-table reads through ObjectDao against in-memory H2 at a few table sizes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadAllBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int rows;
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+
+    @Setup
+    public void setup() throws Exception {
+        pool = new ConnectionPool("jdbc:h2:mem:readall" + rows + ";DB_CLOSE_DELAY=-1", "sa", "", 2);
+        objectDao = new ObjectDao(pool);
+        objectDao.setEntityCache(new EntityCache());
+        objectDao.bootstrap(Customer.class);
+
+        List<Customer> customers = new ArrayList<>();
+        for(int i = 0; i < rows; i++){
+            customers.add(new Customer(i));
+        }
+        objectDao.createObjects(customers);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        objectDao.dropTable(Customer.class);
+        pool.close();
+    }
+
+    @Benchmark
+    public List<Customer> readAll() throws Exception {
+        return objectDao.readAllObjects(Customer.class);
+    }
+
+    @Benchmark
+    public void stream(Blackhole blackhole) throws Exception {
+        try(Stream<Customer> customers = objectDao.streamAllObjects(Customer.class)){
+            customers.forEach(blackhole::consume);
+        }
+    }
+
+    //roughly a fifth of the table, filtered in the database
+    @Benchmark
+    public List<Customer> query() throws Exception {
+        return objectDao.query(Query.from(Customer.class).where("tier").eq((short) 2));
+    }
+}
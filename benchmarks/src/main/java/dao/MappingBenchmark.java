@@ -0,0 +1,119 @@
+package dao;
+
+import bench.Customer;
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import services.ClassInspector;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultSet to object mapping without a database, rows come from an in-memory result set
+ * typed is RowMapper as ObjectDao uses it, boxed is the getObject and reflective set path it replaced
+ * Lives in dao to reach the package-private RowMapper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappingBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    private EntityMetadata metadata;
+    private Object[][] pool;
+
+    @Setup
+    public void setup(){
+        metadata = ClassInspector.getMetadata(Customer.class);
+
+        //a small pool of distinct rows is handed out over and over, so the source itself allocates nothing
+        pool = new Object[1024][];
+        for(int i = 0; i < pool.length; i++){
+            Customer c = new Customer(i);
+            pool[i] = new Object[]{i, c.getFirstName(), c.getLastName(), c.getEmail(), c.getCity(), c.getAge(), c.getVisits(),
+                    c.getLifetimeCents(), c.getScore(), c.getDiscount(), c.getTier(), c.isActive(), String.valueOf(c.getGrade())};
+        }
+    }
+
+    @Benchmark
+    public void typed(Blackhole blackhole) throws Exception {
+        ResultSet rs = resultSet();
+        RowMapper<Customer> mapper = new RowMapper<>(Customer.class, metadata, rs.getMetaData());
+        while(rs.next()){
+            blackhole.consume(mapper.map(rs));
+        }
+    }
+
+    @Benchmark
+    public void boxed(Blackhole blackhole) throws Exception {
+        ResultSet rs = resultSet();
+        ResultSetMetaData rsmd = rs.getMetaData();
+        ColumnMetadata[] columns = new ColumnMetadata[rsmd.getColumnCount()];
+        for(int i = 0; i < columns.length; i++){
+            columns[i] = metadata.getColumn(rsmd.getColumnLabel(i + 1));
+        }
+        while(rs.next()){
+            Customer o = new Customer();
+            for(int i = 0; i < columns.length; i++){
+                columns[i].getAccessor().set(o, rs.getObject(i + 1));
+            }
+            blackhole.consume(o);
+        }
+    }
+
+
+    private ResultSet resultSet(){
+        SimpleResultSet rs = new SimpleResultSet(new SimpleRowSource(){
+            private int row;
+
+            @Override
+            public Object[] readRow(){
+                return row < rows ? pool[row++ & (pool.length - 1)] : null;
+            }
+
+            @Override
+            public void close(){
+            }
+
+            @Override
+            public void reset(){
+                row = 0;
+            }
+        });
+        rs.addColumn("id", Types.INTEGER, 10, 0);
+        rs.addColumn("firstName", Types.VARCHAR, 255, 0);
+        rs.addColumn("lastName", Types.VARCHAR, 255, 0);
+        rs.addColumn("email", Types.VARCHAR, 255, 0);
+        rs.addColumn("city", Types.VARCHAR, 255, 0);
+        rs.addColumn("age", Types.INTEGER, 10, 0);
+        rs.addColumn("visits", Types.INTEGER, 10, 0);
+        rs.addColumn("lifetimeCents", Types.BIGINT, 19, 0);
+        rs.addColumn("score", Types.DOUBLE, 17, 0);
+        rs.addColumn("discount", Types.REAL, 7, 0);
+        rs.addColumn("tier", Types.SMALLINT, 5, 0);
+        rs.addColumn("active", Types.BOOLEAN, 1, 0);
+        rs.addColumn("grade", Types.CHAR, 1, 0);
+        return rs;
+    }
+}
@@ -0,0 +1,50 @@
+package services;
+
+import bench.Account;
+import bench.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of class inspection, cold and through the metadata cache
+ * Lives in services to reach the package-private EntityMetadata constructor
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+
+    //a full scan: fields, annotations, accessor handles and every sql template
+    @Benchmark
+    public EntityMetadata inspectAccount(){
+        return new EntityMetadata(Account.class);
+    }
+
+    @Benchmark
+    public EntityMetadata inspectCustomer(){
+        return new EntityMetadata(Customer.class);
+    }
+
+    //what every ObjectDao call pays
+    @Benchmark
+    public EntityMetadata cachedLookup(){
+        return ClassInspector.getMetadata(Customer.class);
+    }
+
+    @Benchmark
+    public ColumnMetadata columnByLabel(){
+        return ClassInspector.getMetadata(Customer.class).getColumn("lifetimeCents");
+    }
+}
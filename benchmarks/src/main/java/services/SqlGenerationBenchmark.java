@@ -0,0 +1,109 @@
+package services;
+
+import bench.Customer;
+import dao.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sql each ObjectDao method asks for, from templates built once per class and from statements built per call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlGenerationBenchmark {
+
+    private EntityMetadata metadata;
+    private SqlTemplates sql;
+    private BitSet changed;
+
+    @Setup
+    public void setup(){
+        metadata = ClassInspector.getMetadata(Customer.class);
+        sql = metadata.getSql();
+        changed = new BitSet();
+        changed.set(1);
+        changed.set(5);
+        changed.set(8);
+    }
+
+    //every template of a class at once, paid on first use of the class
+    @Benchmark
+    public SqlTemplates buildTemplates(){
+        return new SqlTemplates(metadata);
+    }
+
+    //createObject, readObject, updateObject(o), deleteObject, readAllObjects
+    @Benchmark
+    public String insert(){
+        return sql.insert();
+    }
+
+    @Benchmark
+    public String selectById(){
+        return sql.selectById();
+    }
+
+    @Benchmark
+    public String update(){
+        return sql.update();
+    }
+
+    @Benchmark
+    public String deleteById(){
+        return sql.deleteById();
+    }
+
+    @Benchmark
+    public String selectAll(){
+        return sql.selectAll();
+    }
+
+    //varargs updateObject
+    @Benchmark
+    public String updateLeadingColumns(){
+        return sql.update(4);
+    }
+
+    //Session dirty updates
+    @Benchmark
+    public String updateChangedColumns(){
+        return sql.update(changed);
+    }
+
+    //readObjects and deleteObjects off postgres
+    @Benchmark
+    public String selectByKeys(){
+        return sql.selectByKeys(64);
+    }
+
+    @Benchmark
+    public String upsert(){
+        return sql.upsert(metadata.getColumn("email"));
+    }
+
+    //query builds its sql on every call
+    @Benchmark
+    public String query(){
+        return Query.from(Customer.class)
+                .where("city").eq("city7")
+                .and("age").between(20, 40)
+                .orderByDesc("score")
+                .limit(50)
+                .toSql();
+    }
+}
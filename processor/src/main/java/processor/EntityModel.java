@@ -0,0 +1,70 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the processor learned about one entity, the compile time counterpart of EntityMetadata
+ */
+final class EntityModel {
+
+    final String entityName;
+    final List<Property> columns = new ArrayList<>();
+    Property primaryKey;
+
+    EntityModel(String entityName){
+        this.entityName = entityName;
+    }
+
+    /**
+     * One persisted field and how generated code reaches it
+     */
+    static final class Property {
+
+        final String name;
+        final String kind;
+        final boolean unique;
+        final boolean notNull;
+        final String getter;
+        final String setter;
+
+        Property(String name, String kind, boolean unique, boolean notNull, String getter, String setter){
+            this.name = name;
+            this.kind = kind;
+            this.unique = unique;
+            this.notNull = notNull;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        //same mapping as ColumnMetadata
+        String sqlType(){
+            switch(kind){
+                case "String":
+                    return "text";
+                case "int":
+                    return "integer";
+                case "double":
+                    return "double precision";
+                case "float":
+                    return "real";
+                case "boolean":
+                    return "boolean";
+                case "short":
+                    return "smallint";
+                case "long":
+                    return "bigint";
+                default:
+                    return "char";
+            }
+        }
+
+        String read(String target){
+            return getter != null ? target + "." + getter + "()" : target + "." + name;
+        }
+
+        String write(String target, String value){
+            return setter != null ? target + "." + setter + "(" + value + ")" : target + "." + name + " = " + value;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates an Entity_Mapper class next to every entity with @Column or @PrimaryKey fields
+ * The mapper carries the entity's sql and binds and hydrates it with plain calls, ObjectDao uses it in place of reflection
+ * Entities it cannot reach without reflection (private members without accessors, relations, nested or unmapped types)
+ * get no mapper and keep working through reflection, the reason is reported as a compiler note
+ */
+public class MapperProcessor extends AbstractProcessor {
+
+    static final String COLUMN = "annotations.Column";
+    static final String PRIMARY_KEY = "annotations.PrimaryKey";
+    static final String UNIQUE = "annotations.Unique";
+    static final String NOT_NULL = "annotations.NotNull";
+    static final String MANY_TO_ONE = "annotations.ManyToOne";
+    static final String ONE_TO_MANY = "annotations.OneToMany";
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes(){
+        return new HashSet<>(Arrays.asList(COLUMN, PRIMARY_KEY));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion(){
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv){
+
+        //every class owning an annotated field is an entity
+        Set<TypeElement> entities = new LinkedHashSet<>();
+        for(TypeElement annotation:annotations){
+            for(Element element:roundEnv.getElementsAnnotatedWith(annotation)){
+                if(element.getKind() == ElementKind.FIELD){
+                    entities.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+
+        for(TypeElement entity:entities){
+            if(generated.add(entity.getQualifiedName().toString())){
+                EntityModel model = inspect(entity);
+                if(model != null){
+                    write(entity, model);
+                }
+            }
+        }
+
+        //the annotations stay visible to other processors
+        return false;
+    }
+
+
+
+    //mirrors EntityMetadata, so the sql and member choices match what reflection would make
+    private EntityModel inspect(TypeElement entity){
+
+        if(entity.getNestingKind() != NestingKind.TOP_LEVEL){
+            return skip(entity, "it is not a top level class");
+        }
+        if(entity.getModifiers().contains(Modifier.ABSTRACT)){
+            return skip(entity, "it is abstract");
+        }
+        if(!hasNoArgConstructor(entity)){
+            return skip(entity, "it has no non-private no-argument constructor");
+        }
+
+        Map<String, ExecutableElement> getters = new HashMap<>();
+        Map<String, ExecutableElement> setters = new HashMap<>();
+        ExecutableElement keyGetter = null;
+        ExecutableElement keySetter = null;
+        for(ExecutableElement method:ElementFilter.methodsIn(entity.getEnclosedElements())){
+            String methodName = method.getSimpleName().toString().toLowerCase(Locale.ROOT);
+            if(method.getParameters().isEmpty() && method.getReturnType().getKind() != TypeKind.VOID){
+                getters.putIfAbsent(methodName, method);
+            }else if(method.getParameters().size() == 1){
+                setters.putIfAbsent(methodName, method);
+            }
+            if(methodName.contains("pkeyg")){
+                keyGetter = method;
+            }
+            if(methodName.contains("pkeys")){
+                keySetter = method;
+            }
+        }
+
+        EntityModel model = new EntityModel(entity.getSimpleName().toString());
+        for(VariableElement field:ElementFilter.fieldsIn(entity.getEnclosedElements())){
+
+            if(has(field, MANY_TO_ONE) || has(field, ONE_TO_MANY)){
+                return skip(entity, "it has relations");
+            }
+            boolean primaryKey = has(field, PRIMARY_KEY);
+            if(!primaryKey && !has(field, COLUMN)){
+                continue;
+            }
+
+            String kind = kindOf(field.asType());
+            if(kind == null){
+                return skip(entity, field.getSimpleName() + " has the unmapped type " + field.asType());
+            }
+
+            ExecutableElement getter = findGetter(getters, field);
+            ExecutableElement setter = findSetter(setters, field);
+            if(primaryKey){
+                getter = getter != null ? getter : keyGetter;
+                setter = setter != null ? setter : keySetter;
+            }
+            if(getter != null && (getter.getModifiers().contains(Modifier.PRIVATE) || !getter.getParameters().isEmpty())
+                    || setter != null && (setter.getModifiers().contains(Modifier.PRIVATE) || setter.getParameters().size() != 1)){
+                return skip(entity, field.getSimpleName() + " has a private or unusable accessor");
+            }
+            if((getter == null || setter == null) && field.getModifiers().contains(Modifier.PRIVATE)){
+                return skip(entity, field.getSimpleName() + " is private and lacks a getter or setter");
+            }
+            if(setter == null && field.getModifiers().contains(Modifier.FINAL)){
+                return skip(entity, field.getSimpleName() + " is final");
+            }
+
+            EntityModel.Property property = new EntityModel.Property(field.getSimpleName().toString(), kind,
+                    has(field, UNIQUE), has(field, NOT_NULL),
+                    getter == null ? null : getter.getSimpleName().toString(),
+                    setter == null ? null : setter.getSimpleName().toString());
+
+            //the last @PrimaryKey wins, and a key marked @Column is a column as well, as ClassInspector has it
+            if(primaryKey){
+                model.primaryKey = property;
+            }
+            if(has(field, COLUMN)){
+                model.columns.add(property);
+            }
+        }
+        return model;
+    }
+
+    private EntityModel skip(TypeElement entity, String reason){
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "No mapper generated for " + entity.getSimpleName() + ", " + reason + ", it is mapped by reflection", entity);
+        return null;
+    }
+
+    private static boolean hasNoArgConstructor(TypeElement entity){
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(entity.getEnclosedElements());
+        for(ExecutableElement constructor:constructors){
+            if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)){
+                return true;
+            }
+        }
+        return constructors.isEmpty();
+    }
+
+    private ExecutableElement findGetter(Map<String, ExecutableElement> getters, VariableElement field){
+        String fieldName = field.getSimpleName().toString().toLowerCase(Locale.ROOT);
+        ExecutableElement getter = getters.get("get" + fieldName);
+        if(getter == null && ("boolean".equals(kindOf(field.asType())))){
+            getter = getters.get("is" + fieldName);
+        }
+        Types types = processingEnv.getTypeUtils();
+        return getter != null && types.isAssignable(getter.getReturnType(), field.asType()) ? getter : null;
+    }
+
+    private ExecutableElement findSetter(Map<String, ExecutableElement> setters, VariableElement field){
+        ExecutableElement setter = setters.get("set" + field.getSimpleName().toString().toLowerCase(Locale.ROOT));
+        Types types = processingEnv.getTypeUtils();
+        return setter != null && types.isAssignable(field.asType(), setter.getParameters().get(0).asType()) ? setter : null;
+    }
+
+    //the types ColumnMetadata has a sql type for
+    private static String kindOf(TypeMirror type){
+        switch(type.getKind()){
+            case INT:
+                return "int";
+            case LONG:
+                return "long";
+            case DOUBLE:
+                return "double";
+            case FLOAT:
+                return "float";
+            case SHORT:
+                return "short";
+            case BOOLEAN:
+                return "boolean";
+            case CHAR:
+                return "char";
+            default:
+                return "java.lang.String".equals(type.toString()) ? "String" : null;
+        }
+    }
+
+    private static boolean has(Element element, String annotation){
+        for(AnnotationMirror mirror:element.getAnnotationMirrors()){
+            if(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write(TypeElement entity, EntityModel model){
+        String packageName = processingEnv.getElementUtils().getPackageOf(entity).getQualifiedName().toString();
+        String mapperName = (packageName.isEmpty() ? "" : packageName + ".") + model.entityName + "_Mapper";
+        try{
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(mapperName, entity);
+            try(Writer writer = file.openWriter()){
+                writer.write(new MapperWriter(packageName, model).toSource());
+            }
+        }catch(IOException e){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + mapperName + ": " + e.getMessage(), entity);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package processor;
+
+import java.util.List;
+
+/**
+ * Writes the source of one Entity_Mapper
+ * The sql is built exactly as SqlTemplates builds it, EntityMetadata compares the two before trusting the mapper
+ */
+final class MapperWriter {
+
+    private final String packageName;
+    private final EntityModel model;
+    private final StringBuilder out = new StringBuilder();
+
+    MapperWriter(String packageName, EntityModel model){
+        this.packageName = packageName;
+        this.model = model;
+    }
+
+    String toSource(){
+
+        String entity = model.entityName;
+        String table = "\"" + entity + "\"";
+        EntityModel.Property pKey = model.primaryKey;
+        List<EntityModel.Property> columns = model.columns;
+
+        //the statements, in the same shape as SqlTemplates
+        StringBuilder names = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        String prefix = "";
+        for(EntityModel.Property column:columns){
+            names.append(prefix).append(column.name);
+            placeholders.append(prefix).append("?");
+            prefix = ", ";
+        }
+
+        StringBuilder ddl = new StringBuilder();
+        ddl.append("create table if not exists ").append(table).append("(");
+        prefix = "";
+        if(pKey != null){
+            ddl.append("\n").append(pKey.name).append(" serial primary key");
+            prefix = ", ";
+        }
+        for(EntityModel.Property column:columns){
+            ddl.append(prefix).append("\n").append(column.name).append(" ").append(column.sqlType());
+            prefix = ", ";
+            if(column.unique && column.notNull){
+                ddl.append(" unique not null");
+            }else if(column.unique){
+                ddl.append(" unique");
+            }else if(column.notNull){
+                ddl.append(" not null");
+            }
+        }
+        ddl.append(")");
+
+        String insert = "insert into " + table + "(" + names + ") values(" + placeholders + ")";
+        String selectAll = "select " + (pKey == null ? "" : pKey.name + (columns.isEmpty() ? "" : ", ")) + names + " from " + table;
+        String selectById = pKey == null ? null : "select " + names + " from " + table + " where " + pKey.name + " = ?";
+        String deleteById = pKey == null ? null : "delete from " + table + " where " + pKey.name + " = ?";
+
+        if(!packageName.isEmpty()){
+            line("package " + packageName + ";");
+            line("");
+        }
+        //qualified names throughout, an entity may share a simple name with anything imported
+        line("/**");
+        line(" * Generated by processor.MapperProcessor from " + entity + ", do not edit");
+        line(" */");
+        line("public final class " + entity + "_Mapper implements services.EntityMapper<" + entity + "> {");
+        line("");
+
+        line("    @Override");
+        line("    public Class<" + entity + "> getEntityClass(){");
+        line("        return " + entity + ".class;");
+        line("    }");
+        line("");
+        constant("createTable", ddl.toString());
+        constant("insert", insert);
+        constant("selectAll", selectAll);
+        constant("selectById", selectById);
+        constant("deleteById", deleteById);
+
+        line("    @Override");
+        line("    public " + entity + " newInstance(){");
+        line("        return new " + entity + "();");
+        line("    }");
+        line("");
+
+        line("    @Override");
+        line("    public int bindColumns(java.sql.PreparedStatement stmt, " + entity + " entity, int first) throws java.sql.SQLException {");
+        int offset = 0;
+        for(EntityModel.Property column:columns){
+            bind(column, "first + " + offset++);
+        }
+        line("        return first + " + columns.size() + ";");
+        line("    }");
+        line("");
+
+        line("    @Override");
+        line("    public void mapInto(" + entity + " entity, java.sql.ResultSet rs, int first, boolean withKey) throws java.sql.SQLException {");
+        line("        int i = first;");
+        if(pKey != null){
+            line("        if(withKey){");
+            read(pKey, "key", "            ");
+            line("        }");
+        }
+        int local = 0;
+        for(EntityModel.Property column:columns){
+            read(column, "v" + local++, "        ");
+        }
+        line("    }");
+        line("");
+
+        line("    private static void bindString(java.sql.PreparedStatement stmt, int index, String value) throws java.sql.SQLException {");
+        line("        if(value == null){");
+        line("            stmt.setNull(index, java.sql.Types.VARCHAR);");
+        line("        }else{");
+        line("            stmt.setString(index, value);");
+        line("        }");
+        line("    }");
+        line("}");
+        return out.toString();
+    }
+
+    private void constant(String method, String value){
+        line("    @Override");
+        line("    public String " + method + "(){");
+        line("        return " + (value == null ? "null" : literal(value)) + ";");
+        line("    }");
+        line("");
+    }
+
+    //binds as SqlBinder does, a char is sent as a one character string
+    private void bind(EntityModel.Property column, String index){
+        String value = column.read("entity");
+        switch(column.kind){
+            case "String":
+                line("        bindString(stmt, " + index + ", " + value + ");");
+                break;
+            case "char":
+                line("        stmt.setString(" + index + ", String.valueOf(" + value + "));");
+                break;
+            default:
+                line("        stmt.set" + capitalized(column.kind) + "(" + index + ", " + value + ");");
+        }
+    }
+
+    //reads as RowMapper does, NULL leaves a primitive at its default
+    private void read(EntityModel.Property column, String local, String indent){
+        switch(column.kind){
+            case "String":
+                line(indent + column.write("entity", "rs.getString(i++)") + ";");
+                break;
+            case "char":
+                line(indent + "String " + local + " = rs.getString(i++);");
+                line(indent + "if(" + local + " != null && !" + local + ".isEmpty()){");
+                line(indent + "    " + column.write("entity", local + ".charAt(0)") + ";");
+                line(indent + "}");
+                break;
+            case "boolean":
+                line(indent + "boolean " + local + " = rs.getBoolean(i++);");
+                line(indent + "if(" + local + " || !rs.wasNull()){");
+                line(indent + "    " + column.write("entity", local) + ";");
+                line(indent + "}");
+                break;
+            default:
+                line(indent + column.kind + " " + local + " = rs.get" + capitalized(column.kind) + "(i++);");
+                line(indent + "if(" + local + " != 0 || !rs.wasNull()){");
+                line(indent + "    " + column.write("entity", local) + ";");
+                line(indent + "}");
+        }
+    }
+
+    private static String capitalized(String kind){
+        return Character.toUpperCase(kind.charAt(0)) + kind.substring(1);
+    }
+
+    private static String literal(String value){
+        StringBuilder literal = new StringBuilder("\"");
+        for(char c:value.toCharArray()){
+            if(c == '"' || c == '\\'){
+                literal.append('\\').append(c);
+            }else if(c == '\n'){
+                literal.append("\\n");
+            }else{
+                literal.append(c);
+            }
+        }
+        return literal.append("\"").toString();
+    }
+
+    private void line(String text){
+        out.append(text).append("\n");
+    }
+}
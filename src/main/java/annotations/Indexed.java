@@ -0,0 +1,41 @@
+package annotations;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Denotes an index created with the entity's table
+ * On a @Column or @PrimaryKey field it indexes that column, on the class it indexes the listed columns in order
+ * <pre>
+ * &#64;Indexed(columns = {"lName", "fName"})
+ * &#64;Indexed(columns = "email", unique = true, where = "active")
+ * public class Person { &#64;Column &#64;Indexed private int age; ... }
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+@Repeatable(Indexes.class)
+public @interface Indexed {
+
+    /**
+     * @return The index name, by default the table and column names joined with _ and ending in _idx
+     */
+    String name() default "";
+
+    /**
+     * @return The field names of the indexed columns, required on the class and left empty on a field
+     */
+    String[] columns() default {};
+
+    /**
+     * @return True if no two rows may share the indexed values
+     */
+    boolean unique() default false;
+
+    /**
+     * @return A sql condition limiting the index to matching rows, empty to index every row
+     */
+    String where() default "";
+}
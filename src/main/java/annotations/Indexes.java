@@ -0,0 +1,14 @@
+package annotations;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Holds repeated @Indexed annotations, written implicitly when @Indexed appears more than once
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.TYPE})
+public @interface Indexes {
+    Indexed[] value();
+}
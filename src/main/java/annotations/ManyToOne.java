@@ -0,0 +1,14 @@
+package annotations;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Denotes a field holding another entity, stored as a foreign key column to that entity's primary key
+ * The field is a column on its own, @NotNull and @Unique apply to the key
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ManyToOne {
+}
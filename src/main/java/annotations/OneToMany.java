@@ -0,0 +1,19 @@
+package annotations;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Denotes a List field holding the entities whose @ManyToOne field points back at this one
+ * No column is stored, the list is filled when the relation is fetched
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface OneToMany {
+
+    /**
+     * @return The name of the @ManyToOne field on the element class that refers to this entity
+     */
+    String mappedBy();
+}
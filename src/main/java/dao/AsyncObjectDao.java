@@ -0,0 +1,317 @@
+package dao;
+
+import util.ConnectionPool;
+import util.RoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking facade over an ObjectDao, every call returns a CompletableFuture
+ * At most concurrency calls hold a connection at once, by default the size of the DAO's ConnectionPool,
+ * so fanning out thousands of reads queues them here instead of timing out in the pool
+ * At most maxPending calls may be queued or running, by default 1000 per concurrency slot,
+ * a call submitted beyond that completes at once with a RejectedExecutionException so memory stays bounded
+ * Failures complete the future exceptionally with the exception ObjectDao threw, nothing is printed or swallowed
+ * Runs on virtual threads where the JDK has them, otherwise on a fixed pool of concurrency daemon threads
+ * <pre>
+ * try(AsyncObjectDao async = new AsyncObjectDao(objectDao)){
+ *     CompletableFuture&lt;Person&gt; a = async.readObject(Person.class, 1);
+ *     CompletableFuture&lt;Person&gt; b = async.readObject(Person.class, 2);
+ *     a.thenCombine(b, Pair::new).join();
+ * }
+ * </pre>
+ */
+public class AsyncObjectDao implements AutoCloseable {
+
+    private static final int DEFAULT_CONCURRENCY = 10;
+    private static final int PENDING_PER_SLOT = 1000;
+
+    private final ObjectDao objectDao;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final boolean virtualThreads;
+    private final int concurrency;
+    private final Semaphore permits;
+    private final int maxPending;
+    private final Semaphore pending;
+
+    /**
+     * Creates a facade limited to the size of the DAO's connection pool, the primary's behind a RoutingDataSource, or 10 for other data sources
+     * @param objectDao The DAO every call delegates to
+     */
+    public AsyncObjectDao(ObjectDao objectDao){
+        this(objectDao, defaultConcurrency(objectDao));
+    }
+
+    /**
+     * Creates a facade on its own executor, virtual threads where available
+     * @param objectDao The DAO every call delegates to
+     * @param concurrency The most calls running against the database at once
+     */
+    public AsyncObjectDao(ObjectDao objectDao, int concurrency){
+        this(objectDao, concurrency, concurrency * PENDING_PER_SLOT);
+    }
+
+    /**
+     * Creates a facade on its own executor, virtual threads where available
+     * @param objectDao The DAO every call delegates to
+     * @param concurrency The most calls running against the database at once
+     * @param maxPending The most calls queued or running at once, further calls are rejected
+     */
+    public AsyncObjectDao(ObjectDao objectDao, int concurrency, int maxPending){
+        this(objectDao, virtualThreadExecutor(), concurrency, maxPending, true);
+    }
+
+    /**
+     * Creates a facade on a caller supplied executor, which close leaves running
+     * @param objectDao The DAO every call delegates to
+     * @param executor Runs the calls
+     * @param concurrency The most calls running against the database at once
+     */
+    public AsyncObjectDao(ObjectDao objectDao, ExecutorService executor, int concurrency){
+        this(objectDao, executor, concurrency, concurrency * PENDING_PER_SLOT, false);
+    }
+
+    private AsyncObjectDao(ObjectDao objectDao, ExecutorService executor, int concurrency, int maxPending, boolean ownsExecutor){
+        if(concurrency < 1){
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        if(maxPending < concurrency){
+            throw new IllegalArgumentException("maxPending must be at least concurrency");
+        }
+        this.objectDao = objectDao;
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency, true);
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+        this.virtualThreads = ownsExecutor && executor != null;
+        this.executor = executor != null ? executor : boundedExecutor(concurrency, maxPending);
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * A call against the DAO that may throw whatever ObjectDao throws
+     * @param <T> The result type
+     */
+    public interface DaoCall<T> {
+        T call(ObjectDao objectDao) throws Exception;
+    }
+
+    /**
+     * Runs any DAO call asynchronously under the same concurrency limit as the methods below
+     * @param call The call
+     * @param <T> The result type
+     * @return The call's result, or the exception it threw
+     */
+    public <T> CompletableFuture<T> submit(DaoCall<T> call){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if(!pending.tryAcquire()){
+            future.completeExceptionally(new RejectedExecutionException(maxPending + " calls are already pending"));
+            return future;
+        }
+        try{
+            executor.execute(() -> {
+                try{
+                    run(call, future);
+                }finally{
+                    pending.release();
+                }
+            });
+        }catch(RuntimeException e){
+            //rejected because the executor is shut down
+            pending.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void run(DaoCall<T> call, CompletableFuture<T> future){
+        if(future.isCancelled()){
+            return;
+        }
+        try{
+            permits.acquire();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        }
+        try{
+            future.complete(call.call(objectDao));
+        }catch(Throwable t){
+            future.completeExceptionally(t);
+        }finally{
+            permits.release();
+        }
+    }
+
+    public CompletableFuture<Void> createTable(Class<?> clazz){
+        return submit(dao -> {
+            dao.createTable(clazz);
+            return null;
+        });
+    }
+
+    /**
+     * @return The object itself with its generated key set
+     */
+    public <T> CompletableFuture<T> createObject(T o){
+        return submit(dao -> {
+            dao.createObject(o);
+            return o;
+        });
+    }
+
+    /**
+     * @return The number of objects inserted
+     */
+    public CompletableFuture<Integer> createObjects(Collection<?> objects){
+        return submit(dao -> dao.createObjects(objects));
+    }
+
+    public <T> CompletableFuture<T> readObject(Class<T> clazz, Object key){
+        return submit(dao -> clazz.cast(dao.readObject(clazz, key)));
+    }
+
+    public <T> CompletableFuture<List<T>> readAllObjects(Class<T> clazz){
+        return submit(dao -> dao.readAllObjects(clazz));
+    }
+
+    public <T> CompletableFuture<Page<T>> readPage(Class<T> clazz, int limit, long offset){
+        return submit(dao -> dao.readPage(clazz, limit, offset));
+    }
+
+    public <T> CompletableFuture<Page<T>> readPageAfter(Class<T> clazz, String continuationToken, int limit){
+        return submit(dao -> dao.readPageAfter(clazz, continuationToken, limit));
+    }
+
+    public <T> CompletableFuture<List<T>> query(Query<T> query){
+        return submit(dao -> dao.query(query));
+    }
+
+    /**
+     * @return The number of rows updated
+     */
+    public CompletableFuture<Integer> updateObject(Object o){
+        return submit(dao -> dao.updateObject(o));
+    }
+
+    /**
+     * @return The number of rows deleted
+     */
+    public CompletableFuture<Integer> deleteObject(Class<?> clazz, Object key){
+        return submit(dao -> dao.deleteByKey(clazz, key));
+    }
+
+    public CompletableFuture<Void> deleteAll(Class<?> clazz){
+        return submit(dao -> {
+            dao.deleteAll(clazz);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> dropTable(Class<?> clazz){
+        return submit(dao -> {
+            dao.dropTable(clazz);
+            return null;
+        });
+    }
+
+    public ObjectDao getObjectDao(){
+        return objectDao;
+    }
+
+    public int getConcurrency(){
+        return concurrency;
+    }
+
+    public int getMaxPending(){
+        return maxPending;
+    }
+
+    /**
+     * @return The number of calls currently running against the database
+     */
+    public int getActiveCalls(){
+        return concurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return An estimate of the calls submitted and waiting for one of the concurrency slots
+     */
+    public int getWaitingCalls(){
+        return Math.max(0, maxPending - pending.availablePermits() - getActiveCalls());
+    }
+
+    /**
+     * @return True if calls run on virtual threads
+     */
+    public boolean isVirtualThreads(){
+        return virtualThreads;
+    }
+
+    /**
+     * Stops accepting calls, calls already submitted still complete
+     * An executor passed to the constructor is left running
+     */
+    @Override
+    public void close(){
+        if(ownsExecutor){
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "AsyncObjectDao{concurrency=" + concurrency + ", active=" + getActiveCalls() + ", waiting=" + getWaitingCalls()
+                + ", virtualThreads=" + isVirtualThreads() + "}";
+    }
+
+
+    private static int defaultConcurrency(ObjectDao objectDao){
+        DataSource dataSource = objectDao.getDataSource();
+        //writes all go to the primary, so its pool is the limit behind a router
+        if(dataSource instanceof RoutingDataSource){
+            dataSource = ((RoutingDataSource) dataSource).getPrimary();
+        }
+        if(dataSource instanceof ConnectionPool){
+            return ((ConnectionPool) dataSource).getMaxSize();
+        }
+        return DEFAULT_CONCURRENCY;
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor exists from Java 21, looked up so the code still runs on 8
+    private static ExecutorService virtualThreadExecutor(){
+        try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch(ReflectiveOperationException | RuntimeException e){
+            return null;
+        }
+    }
+
+    //one platform thread per slot, anything beyond waits in the queue rather than holding a thread
+    private static ExecutorService boundedExecutor(int concurrency, int maxPending){
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "orm-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(maxPending), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
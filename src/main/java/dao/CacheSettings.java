@@ -0,0 +1,53 @@
+package dao;
+
+/**
+ * How the second-level cache holds one entity class
+ */
+public final class CacheSettings {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final boolean softValues;
+
+    /**
+     * @param maxSize The most objects kept, the least recently used is evicted beyond it
+     * @param ttlMillis How long an object stays cached after it is read, 0 for no expiry
+     * @param softValues True to let the garbage collector reclaim cached objects under memory pressure
+     */
+    public CacheSettings(int maxSize, long ttlMillis, boolean softValues){
+        if(maxSize < 1){
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        if(ttlMillis < 0){
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.softValues = softValues;
+    }
+
+    /**
+     * @param maxSize The most objects kept
+     * @param ttlMillis How long an object stays cached after it is read, 0 for no expiry
+     */
+    public CacheSettings(int maxSize, long ttlMillis){
+        this(maxSize, ttlMillis, false);
+    }
+
+    public int getMaxSize(){
+        return maxSize;
+    }
+
+    public long getTtlMillis(){
+        return ttlMillis;
+    }
+
+    public boolean isSoftValues(){
+        return softValues;
+    }
+
+    @Override
+    public String toString(){
+        return "CacheSettings{maxSize=" + maxSize + ", ttlMillis=" + ttlMillis + ", softValues=" + softValues + "}";
+    }
+}
@@ -0,0 +1,17 @@
+package dao;
+
+/**
+ * Wire formats supported by ObjectDao.copyObjects
+ */
+public enum CopyFormat {
+
+    /**
+     * Tab separated text, readable and tolerant of type differences
+     */
+    TEXT,
+
+    /**
+     * PostgreSQL binary copy format, smaller and cheaper for the server to parse
+     */
+    BINARY
+}
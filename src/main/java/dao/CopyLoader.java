@@ -0,0 +1,238 @@
+package dao;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams entities into a PostgreSQL table with COPY FROM STDIN
+ * Rows are encoded one at a time into a fixed size buffer that is handed to the driver whenever it fills,
+ * so memory use does not grow with the number of rows
+ */
+class CopyLoader {
+
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private static final byte[] BINARY_HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+            0, 0, 0, 0,
+            0, 0, 0, 0
+    };
+
+    private final EntityMetadata metadata;
+    private final List<ColumnMetadata> columns;
+    private final boolean binary;
+
+    private byte[] buffer = new byte[FLUSH_THRESHOLD + 1024];
+    private int length;
+
+    CopyLoader(EntityMetadata metadata, CopyFormat format){
+        this.metadata = metadata;
+        this.columns = metadata.getColumns();
+        this.binary = format == CopyFormat.BINARY;
+    }
+
+    /**
+     * @param connection A borrowed connection
+     * @return True if the connection can run COPY through the PostgreSQL driver
+     */
+    static boolean isSupported(Connection connection){
+        try{
+            return connection.isWrapperFor(PGConnection.class);
+        }catch(SQLException e){
+            return false;
+        }
+    }
+
+    /**
+     * Copies every object into the entity's table
+     * @param connection A connection for which isSupported is true
+     * @param objects The entities to load
+     * @return The number of rows the server reports as copied
+     */
+    long copy(Connection connection, Iterator<?> objects) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(metadata.getSql().copyFrom(binary));
+
+        try{
+            if(binary){
+                write(BINARY_HEADER, 0, BINARY_HEADER.length);
+            }
+
+            while(objects.hasNext()){
+                if(binary){
+                    encodeBinary(objects.next());
+                }else{
+                    encodeText(objects.next());
+                }
+                if(length >= FLUSH_THRESHOLD){
+                    copyIn.writeToCopy(buffer, 0, length);
+                    length = 0;
+                }
+            }
+
+            if(binary){
+                writeShort(-1);
+            }
+            if(length > 0){
+                copyIn.writeToCopy(buffer, 0, length);
+                length = 0;
+            }
+            return copyIn.endCopy();
+        }finally{
+            //anything still active here failed part way, abort so the connection stays usable
+            if(copyIn.isActive()){
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+
+    private void encodeText(Object o) throws InvocationTargetException, IllegalAccessException {
+
+        for(int i = 0; i < columns.size(); i++){
+            if(i > 0){
+                writeByte('\t');
+            }
+            Object value = columns.get(i).getAccessor().get(o);
+            if(value == null){
+                writeByte('\\');
+                writeByte('N');
+            }else if(value instanceof Boolean){
+                writeByte((Boolean) value ? 't' : 'f');
+            }else if(value instanceof String || value instanceof Character){
+                writeEscaped(value.toString());
+            }else{
+                //numbers never need escaping
+                writeAscii(value.toString());
+            }
+        }
+        writeByte('\n');
+    }
+
+    //backslash, tab and line breaks would otherwise end the field or the row
+    private void writeEscaped(String value){
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch(c){
+                case '\\':
+                    writeByte('\\');
+                    writeByte('\\');
+                    break;
+                case '\t':
+                    writeByte('\\');
+                    writeByte('t');
+                    break;
+                case '\n':
+                    writeByte('\\');
+                    writeByte('n');
+                    break;
+                case '\r':
+                    writeByte('\\');
+                    writeByte('r');
+                    break;
+                default:
+                    if(c < 0x80){
+                        writeByte(c);
+                    }else{
+                        //rare enough that encoding the rest of the value in one go is fine
+                        byte[] bytes = value.substring(i).replace("\\", "\\\\").replace("\t", "\\t")
+                                .replace("\n", "\\n").replace("\r", "\\r").getBytes(StandardCharsets.UTF_8);
+                        write(bytes, 0, bytes.length);
+                        return;
+                    }
+            }
+        }
+    }
+
+    private void writeAscii(String value){
+        ensure(value.length());
+        for(int i = 0; i < value.length(); i++){
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+
+    private void encodeBinary(Object o) throws InvocationTargetException, IllegalAccessException {
+
+        writeShort(columns.size());
+
+        for(ColumnMetadata column:columns){
+            Object value = column.getAccessor().get(o);
+            Class<?> type = column.getType();
+
+            if(value == null){
+                writeInt(-1);
+            }else if(type == int.class || type == Integer.class){
+                writeInt(4);
+                writeInt((Integer) value);
+            }else if(type == long.class || type == Long.class){
+                writeInt(8);
+                writeLong((Long) value);
+            }else if(type == short.class || type == Short.class){
+                writeInt(2);
+                writeShort((Short) value);
+            }else if(type == double.class || type == Double.class){
+                writeInt(8);
+                writeLong(Double.doubleToLongBits((Double) value));
+            }else if(type == float.class || type == Float.class){
+                writeInt(4);
+                writeInt(Float.floatToIntBits((Float) value));
+            }else if(type == boolean.class || type == Boolean.class){
+                writeInt(1);
+                writeByte((Boolean) value ? 1 : 0);
+            }else{
+                //text and char columns both take utf-8 bytes
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                writeInt(bytes.length);
+                write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+
+    private void ensure(int extra){
+        if(length + extra > buffer.length){
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void writeByte(int b){
+        ensure(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void write(byte[] bytes, int offset, int count){
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void writeShort(int value){
+        ensure(2);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeInt(int value){
+        ensure(4);
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeLong(long value){
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+}
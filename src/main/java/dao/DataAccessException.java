@@ -0,0 +1,18 @@
+package dao;
+
+/**
+ * Unchecked wrapper for failures surfaced where checked exceptions cannot be thrown, such as inside a Stream
+ * The original SQLException or reflection exception is always available as the cause
+ */
+public class DataAccessException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DataAccessException(String message, Throwable cause){
+        super(message, cause);
+    }
+
+    public DataAccessException(Throwable cause){
+        super(cause);
+    }
+}
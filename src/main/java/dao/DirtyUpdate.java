@@ -0,0 +1,57 @@
+package dao;
+
+import services.ClassInspector;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One object and the columns that differ from its snapshot
+ */
+class DirtyUpdate {
+
+    private final Object entity;
+    private final EntityMetadata metadata;
+    private final BitSet changed;
+
+    DirtyUpdate(Object entity, BitSet changed){
+        this.entity = entity;
+        this.metadata = ClassInspector.getMetadata(entity.getClass());
+        this.changed = changed;
+    }
+
+    /**
+     * Compares an object against a snapshot taken by EntityCache.disassemble
+     * @return The indexes into getColumns of every column whose value changed, empty if none did
+     */
+    static BitSet diff(EntityMetadata metadata, Object entity, Object[] snapshot) throws InvocationTargetException, IllegalAccessException {
+        List<ColumnMetadata> columns = metadata.getColumns();
+        BitSet changed = new BitSet(columns.size());
+        for(int i = 0; i < columns.size(); i++){
+            if(!Objects.equals(snapshot[i + 1], columns.get(i).getAccessor().get(entity))){
+                changed.set(i);
+            }
+        }
+        return changed;
+    }
+
+    Object getEntity(){
+        return entity;
+    }
+
+    EntityMetadata getMetadata(){
+        return metadata;
+    }
+
+    BitSet getChanged(){
+        return changed;
+    }
+
+    String sql(){
+        return metadata.getSql().update(changed);
+    }
+}
@@ -0,0 +1,418 @@
+package dao;
+
+import services.ClassInspector;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Second-level cache of entity state shared by every ObjectDao that uses it
+ * Only classes given CacheSettings through configure are cached, everything else always goes to the database
+ * Column values are stored rather than objects, every read hands out a fresh copy so callers cannot corrupt the cache
+ * Writes through ObjectDao invalidate the affected entries once they complete, writes made outside this process are only seen after expiry
+ * Behind a RoutingDataSource the first read of a key after a write through ObjectDao refills it from the primary, so a lagging replica cannot put the old row back
+ * <pre>
+ * EntityCache.shared().configure(Country.class, new CacheSettings(500, 60_000));
+ * objectDao.readObject(Country.class, 7);   //database
+ * objectDao.readObject(Country.class, 7);   //cache
+ * </pre>
+ */
+public final class EntityCache {
+
+    private static final EntityCache SHARED = new EntityCache();
+
+    private final ConcurrentMap<Class<?>, Region> regions = new ConcurrentHashMap<>();
+
+    /**
+     * @return The process-wide cache ObjectDao uses by default
+     */
+    public static EntityCache shared(){
+        return SHARED;
+    }
+
+    /**
+     * Starts caching an entity class, replacing and emptying any earlier region for it
+     * @param clazz The entity class, it must have a primary key
+     * @param settings Size, expiry and reference strength
+     */
+    public void configure(Class<?> clazz, CacheSettings settings){
+        if(ClassInspector.getMetadata(clazz).getPrimaryKey() == null){
+            throw new IllegalArgumentException(clazz.getSimpleName() + " has no primary key to cache by");
+        }
+        Region old = regions.put(clazz, new Region(clazz, settings));
+        if(old != null){
+            old.clear();
+        }
+    }
+
+    /**
+     * Stops caching an entity class
+     * @param clazz The entity class
+     */
+    public void remove(Class<?> clazz){
+        Region old = regions.remove(clazz);
+        if(old != null){
+            old.clear();
+        }
+    }
+
+    /**
+     * @param clazz The entity class
+     * @return The class's region, or null if the class is not cached
+     */
+    public Region getRegion(Class<?> clazz){
+        return regions.get(clazz);
+    }
+
+    /**
+     * Empties one class's region
+     * @param clazz The entity class
+     */
+    public void invalidate(Class<?> clazz){
+        Region region = regions.get(clazz);
+        if(region != null){
+            region.clear();
+        }
+    }
+
+    /**
+     * Drops one object from the cache
+     * @param clazz The entity class
+     * @param key The primary key
+     */
+    public void invalidate(Class<?> clazz, Object key){
+        Region region = regions.get(clazz);
+        if(region != null){
+            region.invalidate(region.normalize(key));
+        }
+    }
+
+    /**
+     * Empties every region, configuration is kept
+     */
+    public void invalidateAll(){
+        for(Region region:regions.values()){
+            region.clear();
+        }
+    }
+
+    public long getHits(){
+        long hits = 0;
+        for(Region region:regions.values()){
+            hits += region.getHits();
+        }
+        return hits;
+    }
+
+    public long getMisses(){
+        long misses = 0;
+        for(Region region:regions.values()){
+            misses += region.getMisses();
+        }
+        return misses;
+    }
+
+    public long getEvictions(){
+        long evictions = 0;
+        for(Region region:regions.values()){
+            evictions += region.getEvictions();
+        }
+        return evictions;
+    }
+
+    @Override
+    public String toString(){
+        return "EntityCache" + regions.values();
+    }
+
+
+    //column values in metadata order, primary key first
+    static Object[] disassemble(EntityMetadata metadata, Object o) throws InvocationTargetException, IllegalAccessException {
+        List<ColumnMetadata> columns = metadata.getColumns();
+        Object[] state = new Object[columns.size() + 1];
+        state[0] = metadata.getPrimaryKey().getAccessor().get(o);
+        for(int i = 0; i < columns.size(); i++){
+            state[i + 1] = columns.get(i).getAccessor().get(o);
+        }
+        return state;
+    }
+
+    static <T> T assemble(Class<T> clazz, EntityMetadata metadata, Object[] state) throws InstantiationException, IllegalAccessException, InvocationTargetException {
+        List<ColumnMetadata> columns = metadata.getColumns();
+        T o = clazz.newInstance();
+        metadata.getPrimaryKey().getAccessor().set(o, state[0]);
+        for(int i = 0; i < columns.size(); i++){
+            columns.get(i).getAccessor().set(o, state[i + 1]);
+        }
+        return o;
+    }
+
+
+    /**
+     * The cached state of one entity class, least recently used entries are evicted first
+     * Every method locks the region, which keeps reads cheap next to the round trip they replace
+     */
+    public static final class Region {
+
+        private final Class<?> entityClass;
+        private final CacheSettings settings;
+        private final long ttlNanos;
+        private final Map<Object, CachedValue> entries;
+
+        //keys of the last full read, in row order, dropped by any write to the class
+        private List<Object> allKeys;
+        private long allExpiresAt;
+
+        //bumped by every invalidation so a read that raced a write does not cache what it saw
+        private long version;
+
+        //keys written since they were last cached, refilled from the primary, the oldest marks go first past maxSize
+        private final Map<Object, Boolean> written;
+        //set by a write the marks cannot name, every refill then comes from the primary until a full read does
+        private boolean allWritten;
+        //set by any write, the next full read comes from the primary
+        private boolean fullReadWritten;
+
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long expirations;
+        private long invalidations;
+
+        Region(Class<?> entityClass, CacheSettings settings){
+            this.entityClass = entityClass;
+            this.settings = settings;
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(settings.getTtlMillis());
+            this.entries = new LinkedHashMap<Object, CachedValue>(16, 0.75f, true){
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, CachedValue> eldest){
+                    if(size() > Region.this.settings.getMaxSize()){
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            this.written = new LinkedHashMap<Object, Boolean>(){
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest){
+                    return size() > Region.this.settings.getMaxSize();
+                }
+            };
+        }
+
+        Object normalize(Object key){
+            return ClassInspector.getMetadata(entityClass).getPrimaryKey().getAccessor().coerce(key);
+        }
+
+        synchronized long version(){
+            return version;
+        }
+
+        synchronized Object[] get(Object key){
+            Object[] state = lookup(key);
+            if(state == null){
+                misses++;
+            }else{
+                hits++;
+            }
+            return state;
+        }
+
+        //null when the entry is missing, expired or collected, without counting
+        private Object[] lookup(Object key){
+            CachedValue entry = entries.get(key);
+            if(entry == null){
+                return null;
+            }
+            Object[] state = entry.state();
+            if(state == null){
+                entries.remove(key);
+                evictions++;
+            }else if(expired(entry.expiresAt)){
+                entries.remove(key);
+                expirations++;
+                state = null;
+            }
+            return state;
+        }
+
+        synchronized void put(Object key, Object[] state, long readVersion){
+            if(readVersion == version){
+                entries.put(key, new CachedValue(state, settings.isSoftValues(), expiresAt()));
+                written.remove(key);
+            }
+        }
+
+        /**
+         * @param key The normalized primary key
+         * @return True if the key was written since it was last cached, so refilling it from a replica could bring back the old row
+         */
+        synchronized boolean fillsFromPrimary(Object key){
+            return allWritten || written.containsKey(key);
+        }
+
+        /**
+         * @return True if a full read would cache a row written since it was last cached
+         */
+        synchronized boolean fullReadFillsFromPrimary(){
+            return allWritten || fullReadWritten;
+        }
+
+        /**
+         * @return The state of every row from the last full read, or null if any of it is gone
+         */
+        synchronized List<Object[]> getAll(){
+            if(allKeys == null || expired(allExpiresAt)){
+                allKeys = null;
+                misses++;
+                return null;
+            }
+            List<Object[]> states = new ArrayList<>(allKeys.size());
+            for(Object key:allKeys){
+                Object[] state = lookup(key);
+                if(state == null){
+                    allKeys = null;
+                    misses++;
+                    return null;
+                }
+                states.add(state);
+            }
+            hits++;
+            return states;
+        }
+
+        synchronized void putAll(List<Object[]> states, long readVersion){
+            if(readVersion != version){
+                return;
+            }
+            long expiresAt = expiresAt();
+            written.clear();
+            allWritten = false;
+            fullReadWritten = false;
+            List<Object> keys = new ArrayList<>(states.size());
+            for(Object[] state:states){
+                entries.put(state[0], new CachedValue(state, settings.isSoftValues(), expiresAt));
+                keys.add(state[0]);
+            }
+            //a table bigger than the region would only evict its own head
+            if(states.size() <= settings.getMaxSize()){
+                allKeys = keys;
+                allExpiresAt = expiresAt;
+            }
+        }
+
+        synchronized void invalidate(Object key){
+            version++;
+            invalidations++;
+            entries.remove(key);
+            allKeys = null;
+            written.put(key, Boolean.TRUE);
+            //a full read recaches every row, including this one after its mark is gone
+            fullReadWritten = true;
+        }
+
+        //new rows leave cached objects valid but not the full read
+        synchronized void invalidateFullReads(){
+            version++;
+            allKeys = null;
+            fullReadWritten = true;
+        }
+
+        synchronized void clear(){
+            version++;
+            invalidations++;
+            entries.clear();
+            allKeys = null;
+            written.clear();
+            allWritten = true;
+        }
+
+        private long expiresAt(){
+            return ttlNanos == 0 ? 0 : System.nanoTime() + ttlNanos;
+        }
+
+        private static boolean expired(long expiresAt){
+            return expiresAt != 0 && System.nanoTime() - expiresAt > 0;
+        }
+
+        public Class<?> getEntityClass(){
+            return entityClass;
+        }
+
+        public CacheSettings getSettings(){
+            return settings;
+        }
+
+        public synchronized int size(){
+            return entries.size();
+        }
+
+        public synchronized long getHits(){
+            return hits;
+        }
+
+        public synchronized long getMisses(){
+            return misses;
+        }
+
+        /**
+         * @return Entries dropped for size or reclaimed by the garbage collector
+         */
+        public synchronized long getEvictions(){
+            return evictions;
+        }
+
+        public synchronized long getExpirations(){
+            return expirations;
+        }
+
+        /**
+         * @return Entries or whole regions dropped because of writes
+         */
+        public synchronized long getInvalidations(){
+            return invalidations;
+        }
+
+        /**
+         * @return Hits over all lookups, 0 before the first lookup
+         */
+        public synchronized double getHitRate(){
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public synchronized String toString(){
+            return entityClass.getSimpleName() + "{size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                    + ", evictions=" + evictions + ", expirations=" + expirations + ", invalidations=" + invalidations + "}";
+        }
+    }
+
+
+    private static final class CachedValue {
+
+        private final Object[] strong;
+        private final SoftReference<Object[]> soft;
+        private final long expiresAt;
+
+        CachedValue(Object[] state, boolean softValues, long expiresAt){
+            this.strong = softValues ? null : state;
+            this.soft = softValues ? new SoftReference<>(state) : null;
+            this.expiresAt = expiresAt;
+        }
+
+        Object[] state(){
+            return soft == null ? strong : soft.get();
+        }
+    }
+}
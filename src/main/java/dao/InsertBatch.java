@@ -0,0 +1,121 @@
+package dao;
+
+import services.ColumnMetadata;
+import services.EntityMapper;
+import services.EntityMetadata;
+import util.SqlBinder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pending inserts for one entity class on one connection, sent with addBatch/executeBatch
+ */
+class InsertBatch implements AutoCloseable {
+
+    private final EntityMetadata metadata;
+    private final PreparedStatement stmt;
+    private final List<Object> pending = new ArrayList<>();
+
+    InsertBatch(Connection connection, EntityMetadata metadata) throws SQLException {
+        this.metadata = metadata;
+        this.stmt = prepareInsert(connection, metadata);
+    }
+
+    /**
+     * Prepares the insert for an entity, asking for generated keys when it has a primary key
+     */
+    static PreparedStatement prepareInsert(Connection connection, EntityMetadata metadata) throws SQLException {
+        return metadata.getPrimaryKey() == null
+                ? connection.prepareStatement(metadata.getSql().insert())
+                : connection.prepareStatement(metadata.getSql().insert(), Statement.RETURN_GENERATED_KEYS);
+    }
+
+    void add(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+        bindColumns(stmt, metadata, o);
+        stmt.addBatch();
+        pending.add(o);
+    }
+
+    int size(){
+        return pending.size();
+    }
+
+    /**
+     * Executes everything added since the last flush and writes generated keys back
+     * @return The number of rows sent
+     */
+    int flush() throws SQLException, InvocationTargetException, IllegalAccessException {
+        if(pending.isEmpty()){
+            return 0;
+        }
+        stmt.executeBatch();
+        readGeneratedKeys(stmt, metadata, pending);
+        int sent = pending.size();
+        pending.clear();
+        return sent;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        stmt.close();
+    }
+
+
+    /**
+     * Binds every column of the object in declaration order
+     * @return The next free parameter index
+     */
+    static int bindColumns(PreparedStatement stmt, EntityMetadata metadata, Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+        return bindColumns(stmt, metadata, o, 1);
+    }
+
+    /**
+     * Binds every column of the object in declaration order starting at a given parameter
+     * @return The next free parameter index
+     */
+    @SuppressWarnings("unchecked")
+    static int bindColumns(PreparedStatement stmt, EntityMetadata metadata, Object o, int first) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        //a generated mapper binds with plain calls to the entity
+        EntityMapper<Object> mapper = (EntityMapper<Object>) metadata.getMapper();
+        if(mapper != null){
+            return mapper.bindColumns(stmt, o, first);
+        }
+
+        int i = first;
+        for(ColumnMetadata column:metadata.getColumns()){
+            SqlBinder.bind(stmt, i++, column.getAccessor().get(o), column.getType());
+        }
+        return i;
+    }
+
+    /**
+     * Copies generated primary keys onto the inserted objects, in insertion order
+     */
+    static void readGeneratedKeys(Statement stmt, EntityMetadata metadata, List<?> inserted) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        if(pKey == null){
+            return;
+        }
+
+        try(ResultSet keys = stmt.getGeneratedKeys()){
+            if(keys == null){
+                return;
+            }
+            //some drivers return every column, others only the key
+            int index = keys.getMetaData().getColumnCount() == 1 ? 1 : keys.findColumn(pKey.getName());
+            int row = 0;
+            while(row < inserted.size() && keys.next()){
+                pKey.getAccessor().set(inserted.get(row++), keys.getObject(index));
+            }
+        }
+    }
+}
@@ -1,15 +1,35 @@
 package dao;
-import annotations.NotNull;
-import annotations.Unique;
+import metrics.Operation;
+import metrics.OperationListener;
 import services.ClassInspector;
+import services.CollectionMetadata;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+import services.IndexMetadata;
+import services.SqlTemplates;
 import util.DataConnection;
-import java.lang.reflect.Field;
+import util.RoutingDataSource;
+import util.SqlBinder;
+import javax.sql.DataSource;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 
@@ -18,450 +38,2229 @@ import java.util.Locale;
  */
 public class ObjectDao {
 
+    private final DataSource dataSource;
+
+    private final SchemaRegistry schemaRegistry;
+
+    private int batchSize = 1000;
+
+    private int fetchSize = 1000;
+
+    //largest in list sent to drivers without array parameters
+    private static final int MAX_IN_LIST = 1024;
+
+    private EntityCache entityCache = EntityCache.shared();
+
+    //null until metrics are wanted, every operation then skips the clock entirely
+    private volatile OperationListener operationListener;
+
+
+
+    /**
+     * Creates a DAO backed by the shared connection pool configured in application.properties,
+     * reading from replicas when replica.N.url keys are configured there
+     */
+    public ObjectDao(){
+        this(DataConnection.getRoutedDataSource());
+    }
+
+
+
+    /**
+     * Creates a DAO that borrows its connections from the given data source
+     * @param dataSource Typically a ConnectionPool, any DataSource works, a RoutingDataSource sends plain reads to its replicas
+     */
+    public ObjectDao(DataSource dataSource){
+        this.dataSource = dataSource;
+        this.schemaRegistry = SchemaRegistry.of(dataSource);
+    }
+
+
+
+    /**
+     * @return The data source this DAO borrows connections from
+     */
+    public DataSource getDataSource(){
+        return dataSource;
+    }
+
+
+
+    //with a RoutingDataSource plain reads may go to a replica, everything else stays on the primary
+    private Connection readConnection() throws SQLException {
+        if(dataSource instanceof RoutingDataSource){
+            return ((RoutingDataSource) dataSource).getReadConnection();
+        }
+        return dataSource.getConnection();
+    }
+
+
+
+    //a read that refills the cache after a write must not see a lagging replica
+    private Connection readConnection(boolean primary) throws SQLException {
+        if(primary && dataSource instanceof RoutingDataSource){
+            return ((RoutingDataSource) dataSource).getPrimaryReadConnection();
+        }
+        return readConnection();
+    }
+
+
+
+    //a write keeps the caller's later reads on the primary for the read-your-writes window
+    Connection writeConnection() throws SQLException {
+        if(dataSource instanceof RoutingDataSource){
+            return ((RoutingDataSource) dataSource).getWriteConnection();
+        }
+        return dataSource.getConnection();
+    }
+
+
+
+    //reads on this thread go to the primary until the pin is closed, null without routing
+    RoutingDataSource.Pin pinPrimary(){
+        return dataSource instanceof RoutingDataSource ? ((RoutingDataSource) dataSource).usePrimary() : null;
+    }
+
+
+
+    public int getBatchSize(){
+        return batchSize;
+    }
+
+
+
+    /**
+     * Sets how many rows bulk operations send per JDBC batch
+     * @param batchSize The number of rows per executeBatch, at least 1
+     */
+    public void setBatchSize(int batchSize){
+        if(batchSize < 1){
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+
+
+    public int getFetchSize(){
+        return fetchSize;
+    }
+
+
+
+    /**
+     * Sets how many rows streaming reads ask the driver to fetch per round trip
+     * @param fetchSize The fetch size hint, at least 1
+     */
+    public void setFetchSize(int fetchSize){
+        if(fetchSize < 1){
+            throw new IllegalArgumentException("fetchSize must be at least 1");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+
+
+    /**
+     * @return The registry of tables known to exist, shared by every DAO on this data source
+     */
+    public SchemaRegistry getSchemaRegistry(){
+        return schemaRegistry;
+    }
+
+
+
+    /**
+     * @return The second-level cache consulted by readObject and readAllObjects
+     */
+    public EntityCache getEntityCache(){
+        return entityCache;
+    }
+
+
+
+    /**
+     * @param entityCache The second-level cache to read through and invalidate, the process-wide EntityCache.shared() by default
+     */
+    public void setEntityCache(EntityCache entityCache){
+        if(entityCache == null){
+            throw new IllegalArgumentException("entityCache must not be null, use an unconfigured EntityCache to disable caching");
+        }
+        this.entityCache = entityCache;
+    }
+
+
+
+    /**
+     * @return The listener told about every operation, or null
+     */
+    public OperationListener getOperationListener(){
+        return operationListener;
+    }
+
+
+
+    /**
+     * Reports every operation to a listener, with its table, sql, row count and time spent acquiring, executing and mapping
+     * The listener is called on the thread that ran the operation, after it finished, and must be thread safe
+     * @param operationListener The listener, for example a metrics.MetricsListener, or null to stop reporting
+     */
+    public void setOperationListener(OperationListener operationListener){
+        this.operationListener = operationListener;
+    }
+
+
+
+    Trace trace(Operation operation, EntityMetadata metadata, String sql){
+        return Trace.begin(operationListener, operation, metadata, sql);
+    }
+
 
 
     /**
-     * Creates a new table in the database
+     * Creates a new table in the database, along with its @Indexed indexes
      * @param clazz The class for which a table will be created
      * @throws SQLException Invalid SQL exception, to be caught in web api
      */
-    public void createTable(Class<?> clazz) throws SQLException {
-
-        //for forming sql statements of potentially varying lengths
-        StringBuilder sqlString = new StringBuilder();
-
-        //gets our connection from property file
-        Connection connection = DataConnection.getInstance();
+    public void createTable(Class<?> clazz) throws SQLException {
+
+        //gets a connection from the pool
+        try(Connection connection = writeConnection()){
+            createTable(connection, clazz);
+        }
+    }
+
+
+
+    /**
+     * Creates or validates the tables of every registered entity class in one pass, typically once at startup
+     * Afterwards inserts of those classes are a single statement
+     * @param classes Entity classes to register before bootstrapping, may be empty
+     * @throws SQLException If a table cannot be created or lacks a column its entity maps
+     */
+    public void bootstrap(Class<?>... classes) throws SQLException {
+
+        schemaRegistry.register(classes);
+
+        try(Connection connection = writeConnection()){
+            for(Class<?> clazz:schemaRegistry.getRegistered()){
+                createTable(connection, clazz);
+
+                //an older table may predate columns added to the entity since
+                try(PreparedStatement stmt = connection.prepareStatement(ClassInspector.getMetadata(clazz).getSql().selectNone())){
+                    stmt.executeQuery().close();
+                }catch(SQLException e){
+                    schemaRegistry.forget(clazz);
+                    throw new SQLException(clazz.getSimpleName() + " does not match its table: " + e.getMessage(), e.getSQLState(), e);
+                }
+            }
+        }
+    }
+
+
+
+    private void createTable(Connection connection, Class<?> clazz) throws SQLException {
+        createTable(connection, clazz, new HashSet<>());
+    }
+
+
+
+    private void createTable(Connection connection, Class<?> clazz, Set<Class<?>> creating) throws SQLException {
+
+        //the ddl is generated once per class from its metadata
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        String sql = metadata.getSql().createTable();
+
+        //a foreign key needs the table it refers to, a cycle is left for the database to report
+        creating.add(clazz);
+        for(ColumnMetadata column:metadata.getColumns()){
+            Class<?> referenced = column.getReferencedClass();
+            if(referenced != null && !creating.contains(referenced) && !schemaRegistry.isVerified(referenced)){
+                createTable(connection, referenced, creating);
+            }
+        }
+
+        Trace trace = trace(Operation.CREATE_TABLE, metadata, sql);
+        try(PreparedStatement stmt = connection.prepareStatement(sql)){
+            stmt.executeUpdate();
+            trace.executed();
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+        createIndexes(connection, metadata);
+        schemaRegistry.markVerified(clazz);
+    }
+
+
+
+    //if not exists makes this cheap for a table that already has its indexes
+    private void createIndexes(Connection connection, EntityMetadata metadata) throws SQLException {
+
+        List<IndexMetadata> indexes = metadata.getIndexes();
+        if(indexes.isEmpty()){
+            return;
+        }
+
+        //only postgresql takes a where clause, elsewhere a partial index covers every row
+        boolean partial = "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+        for(int i = 0; i < indexes.size(); i++){
+            IndexMetadata index = indexes.get(i);
+            if(index.isPartial() && !partial && index.isUnique()){
+                throw new SQLFeatureNotSupportedException("The partial unique index " + index.getName() + " needs PostgreSQL, on "
+                        + connection.getMetaData().getDatabaseProductName() + " it would apply to every row");
+            }
+            String sql = partial ? metadata.getSql().createIndexes().get(i) : metadata.getSql().createIndexesUnlimited().get(i);
+
+            Trace trace = trace(Operation.CREATE_INDEX, metadata, sql);
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+                stmt.executeUpdate();
+                trace.executed();
+            }catch(Throwable t){
+                trace.failed(t);
+                throw t;
+            }finally{
+                trace.end();
+            }
+        }
+    }
+
+
+
+    //create table only the first time a class is seen on this data source
+    boolean ensureTable(Connection connection, Class<?> clazz) throws SQLException {
+        if(!schemaRegistry.isVerified(clazz)){
+            createTable(connection, clazz);
+            return true;
+        }
+        return false;
+    }
+
+
+
+    /**
+     * Enters a single object into the database
+     * Creates the table the first time a class is inserted, the generated primary key is written back to the object
+     * @param o The object to be entered into the database
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public void createObject(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        Class<?> clazz = o.getClass();
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+
+        Trace trace = trace(Operation.INSERT, metadata, metadata.getSql().insert());
+
+        //table creation and the insert share one borrowed connection
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+            ensureTable(connection, clazz);
+            try(PreparedStatement stmt = InsertBatch.prepareInsert(connection, metadata)){
+                InsertBatch.bindColumns(stmt, metadata, o);
+                trace.rows(stmt.executeUpdate());
+                InsertBatch.readGeneratedKeys(stmt, metadata, Collections.singletonList(o));
+                trace.executed();
+            }
+        }catch(SQLException e){
+            //the table may have been dropped behind our back, check again next time
+            if(SchemaRegistry.isMissingTable(e)){
+                schemaRegistry.forget(clazz);
+            }
+            trace.failed(e);
+            throw e;
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+            inserted(clazz);
+        }
+    }
+
+
+
+    /**
+     * Enters many objects into the database using JDBC batching
+     * Objects are grouped by class, each table is created once and rows are sent batchSize at a time
+     * Generated primary keys are written back to each object
+     * The whole call is one transaction, nothing is inserted if any batch fails
+     * @param objects The objects to be entered into the database, of any mix of entity classes
+     * @return The number of objects inserted
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int createObjects(Collection<?> objects) throws SQLException, InvocationTargetException, IllegalAccessException {
+        return createObjects(objects.iterator());
+    }
+
+
+
+    /**
+     * Enters a stream of objects into the database using JDBC batching
+     * Only one batch per entity class is held in memory at a time
+     * @param objects The objects to be entered into the database, of any mix of entity classes
+     * @return The number of objects inserted
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @see #createObjects(Collection)
+     */
+    public int createObjects(Stream<?> objects) throws SQLException, InvocationTargetException, IllegalAccessException {
+        return createObjects(objects.iterator());
+    }
+
+
+
+    /**
+     * Bulk loads entities of one class with PostgreSQL COPY FROM STDIN
+     * Rows are encoded incrementally as the iterator is consumed, the payload is never held in memory
+     * Creates the table if it does not exist, generated keys are not written back to the objects
+     * Falls back to batched inserts when the connection is not a PostgreSQL connection
+     * @param clazz The entity class, every object must be of this class
+     * @param objects The entities to load
+     * @param format Text or binary copy format
+     * @param <T> The entity type
+     * @return The number of rows loaded
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public <T> long copyObjects(Class<T> clazz, Iterator<? extends T> objects, CopyFormat format) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+
+        //one COPY event whichever path runs, the fallback's inserts report their own events inside it
+        Trace trace = trace(Operation.COPY, metadata, null);
+        try{
+            try(Connection connection = writeConnection()){
+                trace.acquired();
+                if(CopyLoader.isSupported(connection)){
+                    ensureTable(connection, clazz);
+                    try{
+                        long count = new CopyLoader(metadata, format).copy(connection, objects);
+                        trace.rows(count);
+                        trace.executed();
+                        return count;
+                    }finally{
+                        inserted(clazz);
+                    }
+                }
+            }
+
+            //other drivers have no copy protocol, batching is the next best thing
+            long count = createObjects(objects);
+            trace.rows(count);
+            trace.executed();
+            return count;
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+    }
+
+
+
+    /**
+     * Bulk loads a stream of entities of one class with PostgreSQL COPY FROM STDIN
+     * @param clazz The entity class, every object must be of this class
+     * @param objects The entities to load
+     * @param format Text or binary copy format
+     * @param <T> The entity type
+     * @return The number of rows loaded
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @see #copyObjects(Class, Iterator, CopyFormat)
+     */
+    public <T> long copyObjects(Class<T> clazz, Stream<? extends T> objects, CopyFormat format) throws SQLException, InvocationTargetException, IllegalAccessException {
+        return copyObjects(clazz, objects.iterator(), format);
+    }
+
+
+
+    private int createObjects(Iterator<?> objects) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        Map<Class<?>, InsertBatch> batches = new LinkedHashMap<>();
+        //one event per class, each timing only its own batches
+        Map<Class<?>, Trace> traces = new HashMap<>();
+        //tables created inside this transaction, a rollback undoes their ddl on PostgreSQL
+        Set<Class<?>> created = new HashSet<>();
+        int count = 0;
+
+        try(Connection connection = writeConnection()){
+
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try{
+                while(objects.hasNext()){
+                    Object o = objects.next();
+
+                    //first object of a class makes sure its table exists and opens its batch
+                    InsertBatch batch = batches.get(o.getClass());
+                    if(batch == null){
+                        EntityMetadata metadata = ClassInspector.getMetadata(o.getClass());
+                        traces.put(o.getClass(), trace(Operation.BATCH_INSERT, metadata, metadata.getSql().insert()));
+                        if(ensureTable(connection, o.getClass())){
+                            created.add(o.getClass());
+                        }
+                        batch = new InsertBatch(connection, metadata);
+                        batches.put(o.getClass(), batch);
+                    }
+
+                    batch.add(o);
+                    if(batch.size() >= batchSize){
+                        count += flush(batch, traces.get(o.getClass()));
+                    }
+                }
+
+                for(Map.Entry<Class<?>, InsertBatch> batch:batches.entrySet()){
+                    count += flush(batch.getValue(), traces.get(batch.getKey()));
+                }
+                connection.commit();
+            }catch(SQLException | InvocationTargetException | IllegalAccessException | RuntimeException e){
+                for(Trace trace:traces.values()){
+                    trace.failed(e);
+                }
+                connection.rollback();
+                //the rollback takes any ddl run above with it
+                for(Class<?> clazz:batches.keySet()){
+                    if(created.contains(clazz) || e instanceof SQLException && SchemaRegistry.isMissingTable((SQLException) e)){
+                        schemaRegistry.forget(clazz);
+                    }
+                }
+                throw e;
+            }finally{
+                for(InsertBatch batch:batches.values()){
+                    batch.close();
+                }
+                connection.setAutoCommit(autoCommit);
+                for(Class<?> clazz:batches.keySet()){
+                    traces.get(clazz).end();
+                    inserted(clazz);
+                }
+            }
+        }
+        return count;
+    }
+
+
+
+    private static int flush(InsertBatch batch, Trace trace) throws SQLException, InvocationTargetException, IllegalAccessException {
+        trace.resume();
+        int count = batch.flush();
+        trace.executed();
+        trace.rows(count);
+        return count;
+    }
+
+
+
+    /**
+     * Inserts an object, or updates the existing row in the same statement when the object's key is already taken
+     * The key is the primary key when it is set on the object, otherwise the first @Unique column
+     * Uses insert ... on conflict do update on PostgreSQL and merge on H2, other databases are not supported
+     * An upsert keyed on a unique column writes the row's primary key back to the object
+     * An upsert keyed on the primary key moves the key's serial sequence past the largest key, so later inserts do not collide
+     * @param o The object to insert or update
+     * @return The number of rows written
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int upsert(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+        return upsertAll(Collections.singletonList(o));
+    }
+
+
+
+    /**
+     * Upserts many objects as JDBC batches grouped by class and key column, all in one transaction
+     * @param objects The objects to insert or update, of any mix of entity classes
+     * @return The number of rows written
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @see #upsert(Object)
+     */
+    public int upsertAll(Collection<?> objects) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        if(objects.isEmpty()){
+            return 0;
+        }
+
+        //objects sharing a class and key column share a statement
+        Map<ColumnMetadata, List<Object>> groups = new LinkedHashMap<>();
+        for(Object o:objects){
+            groups.computeIfAbsent(upsertTarget(ClassInspector.getMetadata(o.getClass()), o), target -> new ArrayList<>()).add(o);
+        }
+
+        //tables created inside this call, a rollback undoes their ddl on PostgreSQL
+        Set<Class<?>> created = new HashSet<>();
+        int count = 0;
+        try(Connection connection = writeConnection()){
+
+            boolean merge = usesMerge(connection);
+            //a single row is atomic on its own
+            boolean transaction = objects.size() > 1;
+            boolean autoCommit = connection.getAutoCommit();
+            if(transaction){
+                connection.setAutoCommit(false);
+            }
+
+            try{
+                for(Map.Entry<ColumnMetadata, List<Object>> group:groups.entrySet()){
+                    Class<?> clazz = group.getValue().get(0).getClass();
+                    if(ensureTable(connection, clazz)){
+                        created.add(clazz);
+                    }
+                    count += upsertGroup(connection, group.getKey(), group.getValue(), merge);
+                }
+                if(transaction){
+                    connection.commit();
+                }
+            }catch(SQLException | InvocationTargetException | IllegalAccessException | RuntimeException e){
+                if(transaction){
+                    connection.rollback();
+                }
+                for(List<Object> group:groups.values()){
+                    Class<?> clazz = group.get(0).getClass();
+                    if(created.contains(clazz) || e instanceof SQLException && SchemaRegistry.isMissingTable((SQLException) e)){
+                        schemaRegistry.forget(clazz);
+                    }
+                }
+                throw e;
+            }finally{
+                invalidateUpserted(groups.values());
+                if(transaction){
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+        }
+        return count;
+    }
+
+
+
+    //runs in a finally block, so it must not throw over the upsert's own exception
+    private void invalidateUpserted(Collection<List<Object>> groups){
+        for(List<Object> group:groups){
+            Class<?> clazz = group.get(0).getClass();
+            ColumnMetadata pKey = ClassInspector.getMetadata(clazz).getPrimaryKey();
+            //without a key there is nothing to invalidate by, drop the whole region
+            if(pKey == null){
+                entityCache.invalidate(clazz);
+                continue;
+            }
+            try{
+                for(Object o:group){
+                    entityCache.invalidate(clazz, pKey.getAccessor().get(o));
+                }
+                inserted(clazz);
+            }catch(InvocationTargetException | IllegalAccessException | RuntimeException e){
+                //a key that cannot be read cannot be invalidated on its own
+                entityCache.invalidate(clazz);
+            }
+        }
+    }
+
+
+
+    private int upsertGroup(Connection connection, ColumnMetadata target, List<Object> objects, boolean merge) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        Class<?> clazz = objects.get(0).getClass();
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        boolean byKey = target.isPrimaryKey();
+        String sql = merge ? metadata.getSql().merge(target) : metadata.getSql().upsert(target);
+
+        Trace trace = trace(Operation.UPSERT, metadata, sql);
+        int count = 0;
+        //only rows matched on a unique column need their key back
+        try(PreparedStatement stmt = byKey ? connection.prepareStatement(sql) : connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)){
+            List<Object> pending = new ArrayList<>();
+            for(Object o:objects){
+                if(byKey){
+                    SqlBinder.bind(stmt, 1, target.getAccessor().get(o), target.getType());
+                    InsertBatch.bindColumns(stmt, metadata, o, 2);
+                }else{
+                    InsertBatch.bindColumns(stmt, metadata, o);
+                }
+                stmt.addBatch();
+                pending.add(o);
+                if(pending.size() >= batchSize){
+                    count += flushUpserts(stmt, metadata, pending, byKey);
+                }
+            }
+            count += flushUpserts(stmt, metadata, pending, byKey);
+            //explicit keys bypass the sequence, move it past them before anything inserts without one
+            if(byKey){
+                advanceKeySequence(connection, metadata, merge);
+            }
+            trace.executed();
+            trace.rows(count);
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+        return count;
+    }
+
+
+
+    private static int flushUpserts(PreparedStatement stmt, EntityMetadata metadata, List<Object> pending, boolean byKey) throws SQLException, InvocationTargetException, IllegalAccessException {
+        if(pending.isEmpty()){
+            return 0;
+        }
+        int count = rowsAffected(stmt.executeBatch());
+        if(!byKey){
+            InsertBatch.readGeneratedKeys(stmt, metadata, pending);
+        }
+        pending.clear();
+        return count;
+    }
+
+
+
+    private static void advanceKeySequence(Connection connection, EntityMetadata metadata, boolean merge) throws SQLException {
+        //only an integer key has a serial sequence behind it
+        Class<?> type = metadata.getPrimaryKey().getType();
+        if(type != int.class && type != Integer.class && type != long.class && type != Long.class){
+            return;
+        }
+        try(Statement stmt = connection.createStatement()){
+            if(!merge){
+                stmt.execute(metadata.getSql().advanceSerial());
+                return;
+            }
+            //h2 only restarts an identity with a literal, read where it has to go first
+            long restart;
+            try(ResultSet rs = stmt.executeQuery(metadata.getSql().identityRestart())){
+                if(!rs.next() || rs.getObject(1) == null || rs.getObject(2) == null || rs.getLong(1) <= rs.getLong(2)){
+                    return;
+                }
+                restart = rs.getLong(1);
+            }
+            stmt.execute(metadata.getSql().restartIdentity(restart));
+        }
+    }
+
+
+
+    //the primary key when the object has one, otherwise the first unique column
+    private static ColumnMetadata upsertTarget(EntityMetadata metadata, Object o) throws InvocationTargetException, IllegalAccessException {
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        if(pKey != null){
+            Object key = pKey.getAccessor().get(o);
+            if(key != null && !(key instanceof Number && ((Number) key).longValue() == 0)){
+                return pKey;
+            }
+        }
+        for(ColumnMetadata column:metadata.getColumns()){
+            if(column.isUnique()){
+                return column;
+            }
+        }
+        throw new IllegalArgumentException(metadata.getEntityClass().getSimpleName() + " has no primary key value or @Unique column to upsert on");
+    }
+
+
+
+    //postgresql has on conflict, h2 has merge ... key
+    private static boolean usesMerge(Connection connection) throws SQLException {
+        String database = connection.getMetaData().getDatabaseProductName();
+        if("PostgreSQL".equalsIgnoreCase(database)){
+            return false;
+        }else if("H2".equalsIgnoreCase(database)){
+            return true;
+        }
+        throw new SQLFeatureNotSupportedException("Upsert is not supported on " + database);
+    }
+
+
+
+    /**
+     * Deletes a single record from the database based on primary key
+     * @param clazz The class to which the object to delete belongs
+     * @param keyInt The primary key of the object to delete
+     * @param <T> Generic for dynamic handling of object types
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @throws SQLException
+     * @throws InstantiationException
+     */
+    public <T> void deleteObject(Class<?> clazz, int keyInt) throws InvocationTargetException, IllegalAccessException, SQLException, InstantiationException {
+
+        deleteByKey(clazz, keyInt);
+    }
+
+
+
+    //delete the object based on primary key, returns the number of rows removed
+    int deleteByKey(Class<?> clazz, Object key) throws SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        String sql = metadata.getSql().deleteById();
+
+        Trace trace = trace(Operation.DELETE, metadata, sql);
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+                SqlBinder.bind(stmt, 1, key, metadata.getPrimaryKey().getType());
+                int count = stmt.executeUpdate();
+                trace.executed();
+                trace.rows(count);
+                return count;
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+            entityCache.invalidate(clazz, key);
+        }
+    }
+
+
+
+    /**
+     * Deletes all records from a table in the database
+     * @param clazz The table to truncate in the database
+     * @throws SQLException
+     */
+    public void deleteAll(Class<?> clazz) throws SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        String sql = metadata.getSql().deleteAll();
+
+        Trace trace = trace(Operation.DELETE_ALL, metadata, sql);
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+                trace.rows(stmt.executeUpdate());
+                trace.executed();
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+            entityCache.invalidate(clazz);
+        }
+    }
+
+
+
+    /**
+     * Returns an object from the database using the primary key of said object
+     * @param clazz The class of the object to return
+     * @param keyInt The primary key of the object
+     * @param <T> Generic
+     * @return A new object of type clazz, carrying only the key when there is no such row, use exists to tell the two apart
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @throws InstantiationException
+     */
+    public <T> Object readObject(Class<?> clazz, T keyInt) throws SQLException, InvocationTargetException, IllegalAccessException, InstantiationException {
+
+        Object o = findObject(clazz, keyInt);
+
+        //a missing row still yields an object carrying just the key
+        if(o == null){
+            o = clazz.newInstance();
+            ClassInspector.getMetadata(clazz).getPrimaryKey().getAccessor().set(o,keyInt);
+        }
+        return o;
+    }
+
+
+
+    //reads one row by key through the second-level cache, null when there is no such row
+    <T> T findObject(Class<T> clazz, Object key) throws SQLException, InvocationTargetException, IllegalAccessException, InstantiationException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        EntityCache.Region region = entityCache.getRegion(clazz);
+        if(region == null){
+            return loadObject(clazz, metadata, key, false);
+        }
+
+        key = region.normalize(key);
+        Object[] state = region.get(key);
+        if(state != null){
+            return EntityCache.assemble(clazz, metadata, state);
+        }
+
+        long version = region.version();
+        T o = loadObject(clazz, metadata, key, region.fillsFromPrimary(key));
+        if(o != null){
+            region.put(key, EntityCache.disassemble(metadata, o), version);
+        }
+        return o;
+    }
+
+
+
+    private <T> T loadObject(Class<T> clazz, EntityMetadata metadata, Object key, boolean primary) throws SQLException, InvocationTargetException, IllegalAccessException, InstantiationException {
+
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        String sql = metadata.getSql().selectById();
+
+        Trace trace = trace(Operation.READ, metadata, sql);
+        try(Connection connection = readConnection(primary)){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+
+                SqlBinder.bind(stmt, 1, key, pKey.getType());
+
+                try(ResultSet rs = stmt.executeQuery()){
+                    boolean exists = rs.next();
+                    trace.executed();
+                    if(!exists){
+                        return null;
+                    }
+                    T o = clazz.newInstance();
+                    pKey.getAccessor().set(o, key);
+                    new RowMapper<>(clazz, metadata, rs.getMetaData()).mapInto(o, rs);
+                    trace.mapped();
+                    trace.rows(1);
+                    return o;
+                }
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+    }
+
+
+
+    /**
+     * Reads many objects by primary key with one statement per chunk of keys instead of one per key
+     * PostgreSQL receives each chunk of batchSize keys as a single array parameter, other drivers get in lists of up to 1024 keys
+     * @param clazz The class of the objects to return
+     * @param keys The primary keys, duplicates are read once
+     * @param <T> Generic for dynamic retrieval
+     * @return The objects found keyed by primary key in the order the keys were given, keys without a row are left out
+     * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public <T> Map<Object, T> readObjects(Class<T> clazz, Collection<?> keys) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        Set<Object> wanted = normalizeKeys(metadata, keys);
+
+        Map<Object, T> found = new HashMap<>();
+        List<Object> missing = new ArrayList<>();
+
+        //whatever the second-level cache holds needs no query
+        EntityCache.Region region = entityCache.getRegion(clazz);
+        long version = region == null ? 0 : region.version();
+        boolean primary = false;
+        for(Object key:wanted){
+            Object[] state = region == null ? null : region.get(key);
+            if(state != null){
+                found.put(key, EntityCache.assemble(clazz, metadata, state));
+            }else{
+                missing.add(key);
+                primary |= region != null && region.fillsFromPrimary(key);
+            }
+        }
+
+        if(!missing.isEmpty()){
+            Trace trace = trace(Operation.READ_MANY, metadata, null);
+            try(Connection connection = readConnection(primary)){
+                trace.acquired();
+                String arrayType = arrayType(connection, pKey);
+                int chunk = arrayType != null ? batchSize : Math.min(batchSize, MAX_IN_LIST);
+
+                for(int from = 0; from < missing.size(); from += chunk){
+                    List<Object> chunkKeys = missing.subList(from, Math.min(from + chunk, missing.size()));
+                    try(PreparedStatement stmt = prepareByKeys(connection, metadata, chunkKeys, arrayType, true);
+                        ResultSet rs = stmt.executeQuery()){
+                        trace.executed();
+
+                        RowMapper<T> mapper = new RowMapper<>(clazz, metadata, rs.getMetaData());
+                        while(rs.next()){
+                            T o = mapper.map(rs);
+                            Object key = pKey.getAccessor().get(o);
+                            found.put(key, o);
+                            if(region != null){
+                                region.put(key, EntityCache.disassemble(metadata, o), version);
+                            }
+                            trace.rows(1);
+                        }
+                        trace.mapped();
+                    }
+                }
+            }catch(Throwable t){
+                trace.failed(t);
+                throw t;
+            }finally{
+                trace.end();
+            }
+        }
+
+        Map<Object, T> objects = new LinkedHashMap<>();
+        for(Object key:wanted){
+            T o = found.get(key);
+            if(o != null){
+                objects.put(key, o);
+            }
+        }
+        return objects;
+    }
+
+
+
+    /**
+     * Deletes many records by primary key with one statement per chunk of keys, all in one transaction
+     * @param clazz The class to which the objects to delete belong
+     * @param keys The primary keys, keys without a row are ignored
+     * @return The number of rows deleted
+     * @throws SQLException
+     */
+    public int deleteObjects(Class<?> clazz, Collection<?> keys) throws SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        List<Object> wanted = new ArrayList<>(normalizeKeys(metadata, keys));
+        if(wanted.isEmpty()){
+            return 0;
+        }
+
+        int count = 0;
+        Trace trace = trace(Operation.DELETE_MANY, metadata, null);
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+
+            String arrayType = arrayType(connection, metadata.getPrimaryKey());
+            int chunk = arrayType != null ? batchSize : Math.min(batchSize, MAX_IN_LIST);
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try{
+                for(int from = 0; from < wanted.size(); from += chunk){
+                    List<Object> chunkKeys = wanted.subList(from, Math.min(from + chunk, wanted.size()));
+                    try(PreparedStatement stmt = prepareByKeys(connection, metadata, chunkKeys, arrayType, false)){
+                        count += stmt.executeUpdate();
+                    }
+                }
+                connection.commit();
+                trace.executed();
+                trace.rows(count);
+            }catch(SQLException | RuntimeException e){
+                connection.rollback();
+                throw e;
+            }finally{
+                connection.setAutoCommit(autoCommit);
+                for(Object key:wanted){
+                    entityCache.invalidate(clazz, key);
+                }
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+        return count;
+    }
+
+
+
+    //keys converted to the primary key's type, duplicates dropped, order kept
+    private static Set<Object> normalizeKeys(EntityMetadata metadata, Collection<?> keys){
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        if(pKey == null){
+            throw new IllegalArgumentException(metadata.getEntityClass().getSimpleName() + " has no primary key");
+        }
+        Set<Object> normalized = new LinkedHashSet<>();
+        for(Object key:keys){
+            if(key == null){
+                throw new IllegalArgumentException("Primary keys must not be null");
+            }
+            normalized.add(pKey.getAccessor().coerce(key));
+        }
+        return normalized;
+    }
+
+
+
+    //the postgresql array type for the key, or null where arrays are not used
+    private static String arrayType(Connection connection, ColumnMetadata pKey){
+        if(!CopyLoader.isSupported(connection)){
+            return null;
+        }
+        switch(SqlBinder.sqlType(pKey.getType())){
+            case Types.INTEGER:
+                return "integer";
+            case Types.BIGINT:
+                return "bigint";
+            case Types.SMALLINT:
+                return "smallint";
+            case Types.VARCHAR:
+                return "text";
+            default:
+                return null;
+        }
+    }
+
+
+
+    private static PreparedStatement prepareByKeys(Connection connection, EntityMetadata metadata, List<Object> keys, String arrayType, boolean select) throws SQLException {
+
+        SqlTemplates sql = metadata.getSql();
+
+        if(arrayType != null){
+            PreparedStatement stmt = connection.prepareStatement(select ? sql.selectByKeyArray() : sql.deleteByKeyArray());
+            try{
+                stmt.setArray(1, connection.createArrayOf(arrayType, keys.toArray()));
+            }catch(SQLException | RuntimeException e){
+                stmt.close();
+                throw e;
+            }
+            return stmt;
+        }
+
+        //in lists are padded to a power of two so only a handful of statement shapes reach the statement cache
+        int slots = keys.size() == 1 ? 1 : Integer.highestOneBit(keys.size() - 1) << 1;
+        PreparedStatement stmt = connection.prepareStatement(select ? sql.selectByKeys(slots) : sql.deleteByKeys(slots));
+        try{
+            Class<?> type = metadata.getPrimaryKey().getType();
+            for(int i = 0; i < slots; i++){
+                //padding repeats the last key, which matches the same row again
+                SqlBinder.bind(stmt, i + 1, keys.get(Math.min(i, keys.size() - 1)), type);
+            }
+        }catch(SQLException | RuntimeException e){
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+
+
+    /**
+     * Drops a table from the database
+     * @param clazz The class corresponding to the table to be dropped
+     * @throws SQLException
+     */
+    public void dropTable(Class<?> clazz) throws SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        String sql = metadata.getSql().dropTable();
+
+        Trace trace = trace(Operation.DROP_TABLE, metadata, sql);
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+                stmt.executeUpdate();
+                trace.executed();
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+            schemaRegistry.forget(clazz);
+            entityCache.invalidate(clazz);
+        }
+    }
+
+
+
+    /**
+     * Updates the values of an object in the database
+     * @param clazz The class of the object
+     * @param pKey The primary key of the object
+     * @param params The parameters of the object that will be updated, should not exceed the parameters accepted as defined by the class
+     * @param <T> Generic for handling of varied parameter types
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @throws SQLException
+     * @throws IllegalArgumentException If a parameter cannot be stored in the column at its position
+     * @see Session#update(Object) to write only the columns that changed
+     */
+    @SafeVarargs
+    public final <T> void updateObject(Class<?> clazz, int pKey, T... params) throws InvocationTargetException, IllegalAccessException, SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+
+        List<ColumnMetadata> fieldList = metadata.getColumns();
+
+        //params map onto the leading columns in declaration order
+        String sql = metadata.getSql().update(params.length);
+
+        Trace trace = trace(Operation.UPDATE, metadata, sql);
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+
+                int count = 0;
+
+                for(T param:params){
+                    //a value in the wrong position would otherwise land in the wrong column
+                    Query.checkType(fieldList.get(count), param);
+                    SqlBinder.bind(stmt, count + 1, param, fieldList.get(count).getType());
+                    count++;
+                }
+
+                stmt.setInt(count + 1, pKey);
+                trace.rows(stmt.executeUpdate());
+                trace.executed();
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+            entityCache.invalidate(clazz, pKey);
+        }
+    }
+
+
+
+    /**
+     * Writes every column of an object to its row, matched by the object's primary key
+     * @param o The object to update, its primary key must be set
+     * @return The number of rows updated, 0 if the row no longer exists
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @throws SQLException
+     */
+    public int updateObject(Object o) throws InvocationTargetException, IllegalAccessException, SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(o.getClass());
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        String sql = metadata.getSql().update();
+
+        Trace trace = trace(Operation.UPDATE, metadata, sql);
+        try(Connection connection = writeConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+
+                int next = InsertBatch.bindColumns(stmt, metadata, o);
+                SqlBinder.bind(stmt, next, pKey.getAccessor().get(o), pKey.getType());
+                int count = stmt.executeUpdate();
+                trace.executed();
+                trace.rows(count);
+                return count;
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+            entityCache.invalidate(o.getClass(), pKey.getAccessor().get(o));
+        }
+    }
+
+
+    //writes only the changed columns, updates sharing a statement go out as one batch in one transaction
+    int updateDirty(List<DirtyUpdate> updates) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        if(updates.isEmpty()){
+            return 0;
+        }
+
+        long acquireStart = operationListener == null ? 0 : System.nanoTime();
+        try(Connection connection = writeConnection()){
+
+            //a lone update needs neither a batch nor a transaction
+            if(updates.size() == 1){
+                DirtyUpdate update = updates.get(0);
+                Trace trace = trace(Operation.UPDATE, update.getMetadata(), update.sql());
+                trace.acquired(acquireStart);
+                try(PreparedStatement stmt = connection.prepareStatement(update.sql())){
+                    bindDirty(stmt, update);
+                    int count = stmt.executeUpdate();
+                    trace.executed();
+                    trace.rows(count);
+                    return count;
+                }catch(Throwable t){
+                    trace.failed(t);
+                    throw t;
+                }finally{
+                    trace.end();
+                    invalidate(update);
+                }
+            }
+
+            Map<String, List<DirtyUpdate>> bySql = new LinkedHashMap<>();
+            for(DirtyUpdate update:updates){
+                bySql.computeIfAbsent(update.sql(), sql -> new ArrayList<>()).add(update);
+            }
+
+            int count = 0;
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try{
+                for(Map.Entry<String, List<DirtyUpdate>> group:bySql.entrySet()){
+                    //one event per distinct statement, the batch shares it
+                    Trace trace = trace(Operation.UPDATE, group.getValue().get(0).getMetadata(), group.getKey());
+                    try(PreparedStatement stmt = connection.prepareStatement(group.getKey())){
+                        int pending = 0;
+                        int rows = 0;
+                        for(DirtyUpdate update:group.getValue()){
+                            bindDirty(stmt, update);
+                            stmt.addBatch();
+                            if(++pending >= batchSize){
+                                rows += rowsAffected(stmt.executeBatch());
+                                pending = 0;
+                            }
+                        }
+                        if(pending > 0){
+                            rows += rowsAffected(stmt.executeBatch());
+                        }
+                        trace.executed();
+                        trace.rows(rows);
+                        count += rows;
+                    }catch(Throwable t){
+                        trace.failed(t);
+                        throw t;
+                    }finally{
+                        trace.end();
+                    }
+                }
+                connection.commit();
+            }catch(SQLException | InvocationTargetException | IllegalAccessException | RuntimeException e){
+                connection.rollback();
+                throw e;
+            }finally{
+                connection.setAutoCommit(autoCommit);
+                for(DirtyUpdate update:updates){
+                    invalidate(update);
+                }
+            }
+            return count;
+        }
+    }
+
+
+
+    private static void bindDirty(PreparedStatement stmt, DirtyUpdate update) throws SQLException, InvocationTargetException, IllegalAccessException {
+
+        List<ColumnMetadata> columns = update.getMetadata().getColumns();
+        ColumnMetadata pKey = update.getMetadata().getPrimaryKey();
+        BitSet changed = update.getChanged();
+
+        int index = 1;
+        for(int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)){
+            ColumnMetadata column = columns.get(i);
+            SqlBinder.bind(stmt, index++, column.getAccessor().get(update.getEntity()), column.getType());
+        }
+        SqlBinder.bind(stmt, index, pKey.getAccessor().get(update.getEntity()), pKey.getType());
+    }
+
+
+
+    private void invalidate(DirtyUpdate update) throws InvocationTargetException, IllegalAccessException {
+        Object entity = update.getEntity();
+        entityCache.invalidate(entity.getClass(), update.getMetadata().getPrimaryKey().getAccessor().get(entity));
+    }
+
+
+
+    //drivers may answer SUCCESS_NO_INFO instead of a count
+    static int rowsAffected(int[] counts){
+        int rows = 0;
+        for(int count:counts){
+            rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return rows;
+    }
+
+
+
+    /**
+     * Returns a list of all objects in a table
+     * @param clazz The class corresponding to the table
+     * @param <T> Generic for dynamic retrieval
+     * @return A list of objects
+     * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public <T> List<T> readAllObjects(Class<T> clazz) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
 
-        //comma management - prevents violation of sql syntax
-        String prefix = "";
+        List<T> genericList = new ArrayList<>();
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+
+        EntityCache.Region region = entityCache.getRegion(clazz);
+        long version = 0;
+        boolean primary = false;
+        if(region != null){
+            List<Object[]> states = region.getAll();
+            if(states != null){
+                for(Object[] state:states){
+                    genericList.add(EntityCache.assemble(clazz, metadata, state));
+                }
+                return genericList;
+            }
+            version = region.version();
+            primary = region.fullReadFillsFromPrimary();
+        }
 
-        sqlString.append("create table if not exists \"");
-        sqlString.append(clazz.getSimpleName() + "\"(");
+        String sql = metadata.getSql().selectAll();
 
-        //appends the primary key to our sql string, must be present
-        Field primaryKey = ClassInspector.getPrimaryKey(clazz);
-        sqlString.append("\n" + primaryKey.getName() + " serial primary key, \n");
+        //one query, columns are matched to fields by label rather than position
+        Trace trace = trace(Operation.READ_ALL, metadata, sql);
+        try(Connection connection = readConnection(primary)){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql);
+                ResultSet rs = stmt.executeQuery()){
+                trace.executed();
 
-        //gets a list of all columns excluding the primary key, appends them to our sql string - separates by constraint
-        List<Field> fieldList = ClassInspector.getColumns(clazz);
-        List<Field> uniqueList = new ArrayList<>();
-        List<Field> notNullList = new ArrayList<>();
-        List<Field> bothList = new ArrayList<>();
+                RowMapper<T> mapper = new RowMapper<>(clazz, metadata, rs.getMetaData());
+                while(rs.next()){
+                    genericList.add(mapper.map(rs));
+                }
+                trace.mapped();
+                trace.rows(genericList.size());
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
 
-        for(Field checkField:fieldList){
-            if((checkField.isAnnotationPresent(Unique.class))&&(checkField.isAnnotationPresent(NotNull.class))){
-                bothList.add(checkField);
-            }else if((checkField.isAnnotationPresent(Unique.class))&&(!checkField.isAnnotationPresent(NotNull.class))){
-                uniqueList.add(checkField);
-            }else if((checkField.isAnnotationPresent(NotNull.class))&&(!checkField.isAnnotationPresent(Unique.class))){
-                notNullList.add(checkField);
+        if(region != null){
+            List<Object[]> states = new ArrayList<>(genericList.size());
+            for(T o:genericList){
+                states.add(EntityCache.disassemble(metadata, o));
             }
+            region.putAll(states, version);
         }
 
-        for(Field field:fieldList){
-            sqlString.append(prefix);
-            prefix = ", \n";
-            sqlString.append(field.getName() + " ");
-            Class value = field.getType();
+        //return the object list
+        return genericList;
+    }
+
 
-            //type mapping from Java to postgresql
-            if(value.equals(String.class)){
-                sqlString.append("text");
-            }else if(value.equals(int.class)){
-                sqlString.append("integer");
-            }else if(value.equals(double.class)){
-                sqlString.append("double precision");
-            }else if(value.equals(float.class)){
-                sqlString.append("real");
-            }else if(value.equals(boolean.class)){
-                sqlString.append("boolean");
-            }else if(value.equals(short.class)){
-                sqlString.append("smallint");
-            }else if(value.equals(long.class)){
-                sqlString.append("bigint");
-            }else if(value.equals(char.class)){
-                sqlString.append("char");
-            }
 
-            if(bothList.contains(field)){
-                sqlString.append(" unique not null");
-            }else if(uniqueList.contains(field)){
-                sqlString.append(" unique");
-            }else if(notNullList.contains(field)){
-                sqlString.append(" not null");
-            }
+    /**
+     * Returns one page of a table in primary key order using limit/offset
+     * Cost grows with the offset, prefer readPageAfter for deep paging
+     * @param clazz The class corresponding to the table, which must have a primary key
+     * @param limit The maximum number of objects on the page
+     * @param offset The number of rows to skip
+     * @param <T> Generic for dynamic retrieval
+     * @return The page, its continuation token can be passed to readPageAfter
+     * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public <T> Page<T> readPage(Class<T> clazz, int limit, long offset) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
 
+        checkLimit(limit);
+        if(offset < 0){
+            throw new IllegalArgumentException("offset must not be negative");
         }
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        if(metadata.getPrimaryKey() == null){
+            throw new IllegalArgumentException(clazz.getSimpleName() + " has no primary key");
+        }
+        String sql = metadata.getSql().selectPage();
 
-        //finishes up the statement, prepares it, executes it
-        sqlString.append(");");
-        String sql = sqlString.toString();
-        PreparedStatement stmt = connection.prepareStatement(sql);
-
-        stmt.executeUpdate();
+        Trace trace = trace(Operation.READ_PAGE, metadata, sql);
+        try(Connection connection = readConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
 
+                //one extra row tells us whether another page follows
+                stmt.setInt(1, limit + 1);
+                stmt.setLong(2, offset);
+                return readPage(clazz, metadata, stmt, limit, trace);
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
     }
 
 
 
     /**
-     * Enters a single object into the database
-     * Creates a table if it does not exist
-     * @param o The object to be entered into the database
+     * Returns the page of a table that follows a continuation token, using keyset pagination on the primary key
+     * Every page is an index range scan, so deep pages cost the same as the first one
+     * @param clazz The class corresponding to the table, which must have a primary key
+     * @param continuationToken The token of the previous page, or null for the first page
+     * @param limit The maximum number of objects on the page
+     * @param <T> Generic for dynamic retrieval
+     * @return The page
      * @throws SQLException
-     * @throws InvocationTargetException
+     * @throws InstantiationException
      * @throws IllegalAccessException
+     * @throws InvocationTargetException
      */
-    public void createObject(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
-
-        //create a list of our new type of object
-        //probably cast it as an object of its own type later
-        Class<?> clazz = o.getClass();
+    public <T> Page<T> readPageAfter(Class<T> clazz, String continuationToken, int limit) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
 
-        Connection connection = DataConnection.getInstance();
+        if(continuationToken == null){
+            return readPage(clazz, limit, 0);
+        }
 
-        createTable(clazz);
+        checkLimit(limit);
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        if(metadata.getPrimaryKey() == null){
+            throw new IllegalArgumentException(clazz.getSimpleName() + " has no primary key");
+        }
+        Object lastKey = Page.decodeToken(metadata, continuationToken);
 
-        String prefix = "";
+        String sql = metadata.getSql().selectPageAfter();
 
-        List<Method> methodList = ClassInspector.getGetters(clazz);
+        Trace trace = trace(Operation.READ_PAGE, metadata, sql);
+        try(Connection connection = readConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
 
-        StringBuilder sqlString = new StringBuilder();
+                SqlBinder.bind(stmt, 1, lastKey, metadata.getPrimaryKey().getType());
+                stmt.setInt(2, limit + 1);
+                return readPage(clazz, metadata, stmt, limit, trace);
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+    }
 
-        sqlString.append("insert into \"" + clazz.getSimpleName() + "\"(");
 
-        //fields we need to insert into
-        List<Field> toInsert = ClassInspector.getColumns(clazz);
 
-        //put fields on sql string
-        for(Field field:toInsert){
-            sqlString.append(prefix);
-            sqlString.append(field.getName());
-            prefix = ", ";
+    private static void checkLimit(int limit){
+        if(limit < 1 || limit == Integer.MAX_VALUE){
+            throw new IllegalArgumentException("limit must be between 1 and " + (Integer.MAX_VALUE - 1));
         }
+    }
 
-        sqlString.append(") values(");
 
-        //invokes all getters on the object in proper order
-        for(Field field:toInsert){
 
-            for(Method method:methodList) {
+    //new rows cannot make a cached object stale, only a cached full read
+    void inserted(Class<?> clazz){
+        EntityCache.Region region = entityCache.getRegion(clazz);
+        if(region != null){
+            region.invalidateFullReads();
+        }
+    }
 
-                if (method.getName().toLowerCase(Locale.ROOT).contains(field.getName().toLowerCase(Locale.ROOT))) {
 
-                    if(field.getType().equals(String.class) || field.getType().equals(char.class)){
-                        sqlString.append("'");
-                        sqlString.append(method.invoke(o));
-                        sqlString.append("'");
-                        sqlString.append(", ");
-                    }else{
-                        sqlString.append(method.invoke(o));
-                        sqlString.append(", ");
-                    }
 
+    private <T> Page<T> readPage(Class<T> clazz, EntityMetadata metadata, PreparedStatement stmt, int limit, Trace trace) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+
+        List<T> content = new ArrayList<>(Math.min(limit, 1024));
+        boolean more = false;
+
+        try(ResultSet rs = stmt.executeQuery()){
+            trace.executed();
+            RowMapper<T> mapper = new RowMapper<>(clazz, metadata, rs.getMetaData());
+            while(rs.next()){
+                if(content.size() == limit){
+                    more = true;
+                    break;
                 }
+                content.add(mapper.map(rs));
             }
+            trace.mapped();
+            trace.rows(content.size());
+        }
+
+        String token = null;
+        if(more){
+            Object lastKey = metadata.getPrimaryKey().getAccessor().get(content.get(content.size() - 1));
+            token = Page.encodeToken(metadata, lastKey);
         }
+        return new Page<>(content, limit, token);
+    }
 
-        sqlString.setLength(sqlString.length()-2);
 
-        sqlString.append(");");
 
-        String sql = sqlString.toString();
-        PreparedStatement stmt = connection.prepareStatement(sql);
-        stmt.executeUpdate();
+    /**
+     * Starts a transaction on one pooled connection whose writes are queued and sent as batches on commit
+     * @return The unit of work, commit it or close it to roll back
+     * @throws SQLException If no connection can be borrowed
+     */
+    public UnitOfWork beginUnitOfWork() throws SQLException {
+        return new UnitOfWork(this);
     }
 
 
 
     /**
-     * Deletes a single record from the database based on primary key
-     * @param clazz The class to which the object to delete belongs
-     * @param keyInt The primary key of the object to delete
-     * @param <T> Generic for dynamic handling of object types
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
+     * Opens a session that keeps an identity map over this DAO
+     * @return A new session, close it when the unit of work is done
+     */
+    public Session openSession(){
+        return new Session(this);
+    }
+
+
+
+    /**
+     * Counts the rows of an entity's table in the database without reading any of them
+     * @param clazz The entity class
+     * @return The number of rows
      * @throws SQLException
-     * @throws InstantiationException
      */
-    public <T> void deleteObject(Class<?> clazz, int keyInt) throws InvocationTargetException, IllegalAccessException, SQLException, InstantiationException {
+    public long count(Class<?> clazz) throws SQLException {
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        return selectValue(Operation.COUNT, metadata, metadata.getSql().countAll(), Collections.emptyList(), true).longValue();
+    }
+
 
-        Connection connection = DataConnection.getInstance();
 
-        Method toInvoke = ClassInspector.returnKeyMethod(clazz);
+    /**
+     * Counts the rows a query selects without reading any of them, honouring its limit and offset
+     * @param query The criteria, its projection, ordering and fetches do not change the count
+     * @return The number of rows the query would return
+     * @throws SQLException
+     */
+    public long count(Query<?> query) throws SQLException {
+        String sql = query.toAggregateSql("count", null);
+        return selectValue(Operation.COUNT, query.getMetadata(), sql, query.getParameters(), true).longValue();
+    }
 
-        //delete the object based on primary key
-        Field pKey = ClassInspector.getPrimaryKey(clazz);
 
-        StringBuilder sqlString = new StringBuilder();
 
-        sqlString.append("delete from \"" + clazz.getSimpleName() + "\" where " + pKey.getName() + " = ");
+    /**
+     * Tells whether a row exists for a primary key without reading it, a cached object answers without a statement
+     * @param clazz The entity class
+     * @param key The primary key
+     * @return True if the row exists
+     * @throws SQLException
+     */
+    public boolean exists(Class<?> clazz, Object key) throws SQLException {
 
-        sqlString.append(keyInt);
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        if(metadata.getPrimaryKey() == null){
+            throw new IllegalArgumentException(clazz.getSimpleName() + " has no primary key");
+        }
+        EntityCache.Region region = entityCache.getRegion(clazz);
+        if(region != null && region.get(region.normalize(key)) != null){
+            return true;
+        }
+        return selectValue(Operation.EXISTS, metadata, metadata.getSql().existsById(), Collections.singletonList(key), true) != null;
+    }
 
-        sqlString.append(";");
 
-        String sql = sqlString.toString();
 
-        PreparedStatement stmt = connection.prepareStatement(sql);
-        stmt.executeUpdate();
+    /**
+     * Tells whether a query selects any row, the database stops at the first one
+     * @param query The criteria
+     * @return True if the query would return at least one object
+     * @throws SQLException
+     */
+    public boolean exists(Query<?> query) throws SQLException {
+        return selectValue(Operation.EXISTS, query.getMetadata(), query.toExistsSql(), query.getParameters(), true) != null;
     }
 
 
 
     /**
-     * Deletes all records from a table in the database
-     * @param clazz The table to truncate in the database
+     * Sums a numeric column over every row, in the database
+     * @param clazz The entity class
+     * @param column The field name of a numeric @Column
+     * @return The sum, 0 for an empty table, exact for integer columns up to 2^53
      * @throws SQLException
      */
-    public void deleteAll(Class<?> clazz) throws SQLException {
+    public double sum(Class<?> clazz, String column) throws SQLException {
+        return sum(Query.from(clazz), column);
+    }
 
-        Connection connection = DataConnection.getInstance();
 
-        String sql = "truncate \"" + clazz.getSimpleName() + "\";";
-        PreparedStatement stmt = connection.prepareStatement(sql);
 
-        stmt.executeUpdate();
+    /**
+     * Sums a numeric column over the rows a query selects, in the database
+     * @param query The criteria
+     * @param column The field name of a numeric @Column
+     * @return The sum, 0 when no rows match, exact for integer columns up to 2^53
+     * @throws SQLException
+     */
+    public double sum(Query<?> query, String column) throws SQLException {
+        double sum = aggregate(query, "sum", column);
+        return Double.isNaN(sum) ? 0 : sum;
     }
 
 
 
     /**
-     * Returns an object from the database using the primary key of said object
-     * @param clazz The class of the object to return
-     * @param keyInt The primary key of the object
-     * @param <T> Generic
-     * @return A new object of type clazz
+     * @param clazz The entity class
+     * @param column The field name of a numeric @Column
+     * @return The smallest value of the column, NaN for an empty table
      * @throws SQLException
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
-     * @throws InstantiationException
      */
-    public <T> Object readObject(Class<?> clazz, T keyInt) throws SQLException, InvocationTargetException, IllegalAccessException, InstantiationException {
+    public double min(Class<?> clazz, String column) throws SQLException {
+        return min(Query.from(clazz), column);
+    }
+
+
+
+    /**
+     * @param query The criteria
+     * @param column The field name of a numeric @Column
+     * @return The smallest value of the column among the rows the query selects, NaN when no rows match
+     * @throws SQLException
+     */
+    public double min(Query<?> query, String column) throws SQLException {
+        return aggregate(query, "min", column);
+    }
+
+
+
+    /**
+     * @param clazz The entity class
+     * @param column The field name of a numeric @Column
+     * @return The largest value of the column, NaN for an empty table
+     * @throws SQLException
+     */
+    public double max(Class<?> clazz, String column) throws SQLException {
+        return max(Query.from(clazz), column);
+    }
+
+
+
+    /**
+     * @param query The criteria
+     * @param column The field name of a numeric @Column
+     * @return The largest value of the column among the rows the query selects, NaN when no rows match
+     * @throws SQLException
+     */
+    public double max(Query<?> query, String column) throws SQLException {
+        return aggregate(query, "max", column);
+    }
+
+
+
+    /**
+     * @param clazz The entity class
+     * @param column The field name of a numeric @Column
+     * @return The mean of the column ignoring NULLs, NaN for an empty table
+     * @throws SQLException
+     */
+    public double avg(Class<?> clazz, String column) throws SQLException {
+        return avg(Query.from(clazz), column);
+    }
+
 
-        T o = (T) clazz.newInstance();
-        Connection connection = DataConnection.getInstance();
 
-        //a list of fields and methods we need later
-        List<Method> invokeList = ClassInspector.getSetters(clazz);
-        List<Field> toRetrieve = ClassInspector.getColumns(clazz);
-        Method keySet = ClassInspector.returnKeySetter(clazz);
+    /**
+     * @param query The criteria
+     * @param column The field name of a numeric @Column
+     * @return The mean of the column ignoring NULLs among the rows the query selects, NaN when no rows match
+     * @throws SQLException
+     */
+    public double avg(Query<?> query, String column) throws SQLException {
+        return aggregate(query, "avg", column);
+    }
 
-        StringBuilder sqlString = new StringBuilder();
-        sqlString.append("select ");
-        String prefix = "";
 
-        Field pKey = ClassInspector.getPrimaryKey(clazz);
 
-        keySet.invoke(o,keyInt);
+    //NaN stands for the NULL an aggregate of no rows answers
+    private double aggregate(Query<?> query, String function, String name) throws SQLException {
 
-        for(Field field:toRetrieve){
-            sqlString.append(prefix);
-            sqlString.append(field.getName());
-            prefix = ", ";
+        ColumnMetadata column = query.getMetadata().getColumn(name);
+        if(column == null){
+            throw new IllegalArgumentException(query.getEntityClass().getSimpleName() + " has no column " + name);
         }
-        sqlString.append(" from \"")
-                .append(clazz.getSimpleName())
-                .append("\"")
-                .append(" where ")
-                .append(pKey.getName())
-                .append(" = ")
-                .append(keyInt)
-                .append(";");
+        Class<?> type = column.getType();
+        if(!(type == int.class || type == long.class || type == double.class || type == float.class || type == short.class
+                || Number.class.isAssignableFrom(type))){
+            throw new IllegalArgumentException(name + " holds " + type.getSimpleName() + ", " + function + " needs a numeric column");
+        }
+
+        String sql = query.toAggregateSql(function, column);
+        Number value = selectValue(Operation.AGGREGATE, query.getMetadata(), sql, query.getParameters(), false);
+        return value == null ? Double.NaN : value.doubleValue();
+    }
 
 
-        String sql = sqlString.toString();
-        PreparedStatement stmt = connection.prepareStatement(sql);
 
-        ResultSet rs = stmt.executeQuery();
+    //the first column of the first row, null when there is no row or the value is NULL, nothing is hydrated
+    private Number selectValue(Operation operation, EntityMetadata metadata, String sql, List<?> params, boolean integral) throws SQLException {
 
-        int i = 1;
+        Trace trace = trace(operation, metadata, sql);
+        try(Connection connection = readConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
 
-        while(rs.next()){
-            for(Field field:toRetrieve){
-                for(Method method:invokeList){
-                    if(method.getName().toLowerCase(Locale.ROOT).contains(field.getName().toLowerCase(Locale.ROOT))){
-                        method.invoke(o,rs.getObject(i));
-                        i++;
-                    }
+                for(int i = 0; i < params.size(); i++){
+                    SqlBinder.bind(stmt, i + 1, params.get(i));
+                }
 
+                try(ResultSet rs = stmt.executeQuery()){
+                    trace.executed();
+                    if(!rs.next()){
+                        return null;
+                    }
+                    Number value = integral ? (Number) rs.getLong(1) : (Number) rs.getDouble(1);
+                    trace.rows(1);
+                    return rs.wasNull() ? null : value;
                 }
             }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
         }
-        return o;
     }
 
 
 
     /**
-     * Drops a table from the database
-     * @param clazz The class corresponding to the table to be dropped
+     * Runs a query and returns every matching object
+     * Filtering, ordering, limits and projections all happen in the database
+     * @param query The query to run
+     * @param <T> Generic for dynamic retrieval
+     * @return The matching objects, in the query's order
      * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
      */
-    public void dropTable(Class<?> clazz) throws SQLException {
+    public <T> List<T> query(Query<T> query) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+
+        List<T> results = new ArrayList<>();
+        List<Object> params = query.getParameters();
+        String sql = query.toSql();
+
+        Trace trace = trace(Operation.QUERY, query.getMetadata(), sql);
+        try(Connection connection = readConnection()){
+            trace.acquired();
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+
+                for(int i = 0; i < params.size(); i++){
+                    SqlBinder.bind(stmt, i + 1, params.get(i));
+                }
+
+                try(ResultSet rs = stmt.executeQuery()){
+                    trace.executed();
+                    if(query.getJoinFetches().isEmpty()){
+                        RowMapper<T> mapper = new RowMapper<>(query.getEntityClass(), query.getMetadata(), rs.getMetaData());
+                        while(rs.next()){
+                            results.add(mapper.map(rs));
+                        }
+                    }else{
+                        mapJoined(query, rs, results);
+                    }
+                    trace.mapped();
+                    trace.rows(results.size());
+                }
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.end();
+        }
+
+        //relations not joined are loaded across the whole result, a statement per batch of keys
+        for(Query<T>.Fetch fetch:query.getFetches()){
+            if(!fetch.join){
+                fetchRelation(results, query.getMetadata(), fetch.reference, fetch.collection);
+            }
+        }
+        return results;
+    }
+
+
+
+    //one row holds the root's columns then each joined entity's, a joined list repeats the root once per element
+    private static <T> void mapJoined(Query<T> query, ResultSet rs, List<T> results) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+
+        EntityMetadata metadata = query.getMetadata();
+        ResultSetMetaData rsmd = rs.getMetaData();
+        List<Query<T>.Fetch> joins = query.getJoinFetches();
+
+        int last = query.getSelectedColumns().size();
+        RowMapper<T> rootMapper = new RowMapper<>(query.getEntityClass(), metadata, rsmd, 1, last);
+
+        RowMapper<?>[] mappers = new RowMapper<?>[joins.size()];
+        int[] keyIndexes = new int[joins.size()];
+        List<Map<Object, Object>> loaded = new ArrayList<>();
+        boolean repeatsRoot = false;
+        for(int i = 0; i < joins.size(); i++){
+            EntityMetadata target = joins.get(i).target;
+            keyIndexes[i] = last + 1;
+            last += Query.allColumns(target).size();
+            mappers[i] = new RowMapper<>(target.getEntityClass(), target, rsmd, keyIndexes[i], last);
+            loaded.add(new HashMap<>());
+            repeatsRoot |= joins.get(i).collection != null;
+        }
 
-        Connection connection = DataConnection.getInstance();
-        StringBuilder sqlString = new StringBuilder();
+        ColumnMetadata rootKey = metadata.getPrimaryKey();
+        Map<Object, T> roots = new HashMap<>();
+        while(rs.next()){
 
-        sqlString.append("drop table \"").append(clazz.getSimpleName()).append("\";");
+            T root = null;
+            boolean first = true;
+            if(repeatsRoot){
+                Object key = rootKey.getAccessor().coerce(rs.getObject(1));
+                root = roots.get(key);
+                first = root == null;
+            }
+            if(first){
+                root = rootMapper.map(rs);
+                results.add(root);
+                if(repeatsRoot){
+                    roots.put(rootKey.getAccessor().get(root), root);
+                }
+            }
 
-        String sql = sqlString.toString();
-        PreparedStatement stmt = connection.prepareStatement(sql);
+            for(int i = 0; i < joins.size(); i++){
+                Query<T>.Fetch join = joins.get(i);
+                if(first && join.collection != null){
+                    join.collection.getAccessor().set(root, new ArrayList<>());
+                }
 
-        stmt.executeUpdate();
+                //a left join with nothing to join has a null key
+                Object key = rs.getObject(keyIndexes[i]);
+                if(key == null){
+                    continue;
+                }
+                key = join.target.getPrimaryKey().getAccessor().coerce(key);
+
+                if(join.reference != null){
+                    //rows sharing a referenced entity share one instance of it
+                    Object target = loaded.get(i).get(key);
+                    if(target == null){
+                        target = mappers[i].map(rs);
+                        loaded.get(i).put(key, target);
+                    }
+                    join.reference.setReference(root, target);
+                }else{
+                    Object element = mappers[i].map(rs);
+                    join.collection.getMappedByColumn(metadata.getEntityClass()).setReference(element, root);
+                    collectionOf(join.collection, root).add(element);
+                }
+            }
+        }
     }
 
 
 
     /**
-     * Updates the values of an object in the database
-     * @param clazz The class of the object
-     * @param pKey The primary key of the object
-     * @param params The parameters of the object that will be updated, should not exceed the parameters accepted as defined by the class
-     * @param <T> Generic for handling of varied parameter types
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
+     * Loads relations of objects already read, one statement per batch of keys whatever the number of objects
+     * A @ManyToOne field is replaced by the full referenced entity, objects sharing a reference share one instance
+     * A @OneToMany list is replaced by a new list of every entity pointing back at the object, in primary key order
+     * @param objects Objects of one entity class, typically from readAllObjects, readPage or query
+     * @param relations Names of @ManyToOne and @OneToMany fields
+     * @param <T> Generic for dynamic retrieval
      * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     * @see Query#fetch(String) to load relations together with a query
      */
-    @SafeVarargs
-    public final <T> void updateObject(Class<?> clazz, int pKey, T... params) throws InvocationTargetException, IllegalAccessException, SQLException {
+    public <T> void fetchRelations(Collection<T> objects, String... relations) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
 
-        Connection connection = DataConnection.getInstance();
+        if(objects.isEmpty()){
+            return;
+        }
+        Class<?> clazz = objects.iterator().next().getClass();
+        for(T o:objects){
+            if(o.getClass() != clazz){
+                throw new IllegalArgumentException("Relations can only be fetched for objects of one class, found " + clazz.getSimpleName() + " and " + o.getClass().getSimpleName());
+            }
+        }
 
-        StringBuilder sqlString = new StringBuilder();
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        for(String relation:relations){
+            ColumnMetadata reference = metadata.getColumn(relation);
+            CollectionMetadata collection = metadata.getCollection(relation);
+            if((reference == null || !reference.isReference()) && collection == null){
+                throw new IllegalArgumentException(clazz.getSimpleName() + " has no @ManyToOne or @OneToMany field " + relation);
+            }
+            fetchRelation(objects, metadata, reference != null && reference.isReference() ? reference : null, collection);
+        }
+    }
 
-        Field pKeyField = ClassInspector.getPrimaryKey(clazz);
 
-        List<Field> fieldList = ClassInspector.getColumns(clazz);
 
-        int count = 0;
+    private void fetchRelation(Collection<?> objects, EntityMetadata metadata, ColumnMetadata reference, CollectionMetadata collection) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
 
-        sqlString.append("update \"")
-                .append(clazz.getSimpleName())
-                .append("\" set ");
+        if(objects.isEmpty()){
+            return;
+        }
 
-        String prefix = "";
+        if(reference != null){
+            //readObjects already chunks the keys and serves what it can from the cache
+            Set<Object> keys = new LinkedHashSet<>();
+            for(Object o:objects){
+                Object key = reference.getAccessor().get(o);
+                if(key != null){
+                    keys.add(key);
+                }
+            }
+            if(keys.isEmpty()){
+                return;
+            }
+            Map<Object, ?> found = readObjects(reference.getReferencedClass(), keys);
+            for(Object o:objects){
+                Object target = found.get(reference.getAccessor().get(o));
+                if(target != null){
+                    reference.setReference(o, target);
+                }
+            }
+            return;
+        }
 
-        for(T param:params){
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        ColumnMetadata mappedBy = collection.getMappedByColumn(metadata.getEntityClass());
+        EntityMetadata element = ClassInspector.getMetadata(collection.getElementClass());
+
+        //every owner gets a fresh list, owners with the same key share it
+        Map<Object, Object> owners = new LinkedHashMap<>();
+        for(Object o:objects){
+            Object key = pKey.getAccessor().get(o);
+            Object owner = owners.get(key);
+            if(owner == null){
+                owners.put(key, o);
+                collection.getAccessor().set(o, new ArrayList<>());
+            }else{
+                collection.getAccessor().set(o, collection.getAccessor().get(owner));
+            }
+        }
 
-            sqlString.append(prefix);
-            prefix = ",";
+        List<Object> keys = new ArrayList<>(owners.keySet());
+        int chunk = Math.min(batchSize, MAX_IN_LIST);
+        for(int from = 0; from < keys.size(); from += chunk){
+            List<Object> chunkKeys = keys.subList(from, Math.min(from + chunk, keys.size()));
 
-            if(param instanceof String){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = '").append(param).append("'");
-                count++;
-            }if(param instanceof Integer){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = ").append(param);
-                count++;
-            }if(param instanceof Double){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = ").append(param);
-                count++;
-            }if(param instanceof Character){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = '").append(param).append("'");
-                count++;
-            }if(param instanceof Boolean){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = ").append(param);
-                count++;
-            }if(param instanceof Long){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = ").append(param);
-                count++;
-            }if(param instanceof Short){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = ").append(param);
-                count++;
-            }if(param instanceof Float){
-                sqlString.append(fieldList.get(count).getName());
-                sqlString.append(" = ").append(param);
-                count++;
+            Query<?> children = Query.from(element.getEntityClass()).where(mappedBy.getName()).in(padded(chunkKeys));
+            if(element.getPrimaryKey() != null){
+                children.orderBy(element.getPrimaryKey().getName());
             }
+            for(Object child:query(children)){
+                Object owner = owners.get(mappedBy.getAccessor().get(child));
+                mappedBy.setReference(child, owner);
+                collectionOf(collection, owner).add(child);
+            }
+        }
+    }
+
 
+
+    //in lists padded to a power of two by repeating the last key, as prepareByKeys does, to keep statement shapes few
+    private static List<Object> padded(List<Object> keys){
+        int slots = keys.size() == 1 ? 1 : Integer.highestOneBit(keys.size() - 1) << 1;
+        List<Object> padded = new ArrayList<>(keys);
+        while(padded.size() < slots){
+            padded.add(keys.get(keys.size() - 1));
         }
+        return padded;
+    }
 
-        sqlString.append(" where ")
-                .append(pKeyField.getName())
-                .append(" = ")
-                .append(pKey).append(";");
 
-        String sql = sqlString.toString();
 
-        PreparedStatement stmt = connection.prepareStatement(sql);
-        stmt.executeUpdate();
+    @SuppressWarnings("unchecked")
+    private static List<Object> collectionOf(CollectionMetadata collection, Object owner) throws IllegalAccessException, InvocationTargetException {
+        return (List<Object>) collection.getAccessor().get(owner);
     }
 
 
+
     /**
-     * Returns a list of all objects in a table
+     * Runs a query and streams the matching objects through a cursor
+     * The stream holds a pooled connection until it is closed, always use it in try-with-resources
+     * @param query The query to run
+     * @param <T> Generic for dynamic retrieval
+     * @return A stream of objects that must be closed
+     * @throws SQLException If the query cannot be started
+     */
+    public <T> Stream<T> streamQuery(Query<T> query) throws SQLException {
+        if(!query.getFetches().isEmpty()){
+            throw new IllegalArgumentException("Relations cannot be fetched while streaming, use query or fetchRelations on the streamed objects");
+        }
+        return stream(query.getEntityClass(), query.getMetadata(), query.toSql(), query.getParameters());
+    }
+
+
+
+    /**
+     * Returns a lazily hydrated stream over every object in a table
+     * Rows are fetched fetchSize at a time through a server-side cursor and mapped only as the stream is consumed,
+     * so memory use does not depend on table size
+     * The stream holds a pooled connection until it is closed, always use it in try-with-resources
+     * Failures while reading rows are thrown as DataAccessException
      * @param clazz The class corresponding to the table
      * @param <T> Generic for dynamic retrieval
-     * @return A list of objects
+     * @return A stream of objects that must be closed
+     * @throws SQLException If the query cannot be started
+     */
+    public <T> Stream<T> streamAllObjects(Class<T> clazz) throws SQLException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        return stream(clazz, metadata, metadata.getSql().selectAll(), Collections.emptyList());
+    }
+
+
+
+    /**
+     * Hands every object in a table to a callback, one row at a time
+     * Uses the same cursor as streamAllObjects but manages the connection itself
+     * @param clazz The class corresponding to the table
+     * @param action Called once per row, in table order
+     * @param <T> Generic for dynamic retrieval
+     * @return The number of objects visited
      * @throws SQLException
      * @throws InstantiationException
      * @throws IllegalAccessException
      * @throws InvocationTargetException
      */
-    public <T> List<T> readAllObjects(Class<T> clazz) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
-
-        List<T> genericList = new ArrayList<>();
-        Connection connection = DataConnection.getInstance();
-        List<Method> invokeList = ClassInspector.getSetters(clazz);
-        List<Field> toRetrieve = ClassInspector.getColumns(clazz);
-        Method pKeySet = ClassInspector.returnKeySetter(clazz);
-
-        StringBuilder sqlString = new StringBuilder();
-        sqlString.append("select * from \"").append(clazz.getSimpleName()).append("\";");
-        String sql = sqlString.toString();
+    public <T> long forEachObject(Class<T> clazz, Consumer<? super T> action) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+
+        EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+        String sql = metadata.getSql().selectAll();
+        long count = 0;
+
+        Trace trace = trace(Operation.STREAM, metadata, sql);
+        try(Connection connection = readConnection()){
+            trace.acquired();
+            boolean autoCommit = connection.getAutoCommit();
+            //postgres only uses a cursor for fetchSize outside of auto-commit
+            connection.setAutoCommit(false);
+
+            try(PreparedStatement stmt = connection.prepareStatement(sql)){
+                stmt.setFetchSize(fetchSize);
+                try(ResultSet rs = stmt.executeQuery()){
+                    RowMapper<T> mapper = new RowMapper<>(clazz, metadata, rs.getMetaData());
+                    //fetching counts as executing, the callback's own time counts as nothing
+                    while(rs.next()){
+                        trace.executed();
+                        T o = mapper.map(rs);
+                        trace.mapped();
+                        action.accept(o);
+                        trace.resume();
+                        count++;
+                    }
+                    trace.executed();
+                }
+                connection.commit();
+            }finally{
+                connection.setAutoCommit(autoCommit);
+            }
+        }catch(Throwable t){
+            trace.failed(t);
+            throw t;
+        }finally{
+            trace.rows(count);
+            trace.end();
+        }
+        return count;
+    }
 
-        PreparedStatement stmt = connection.prepareStatement(sql);
-        ResultSet rs = stmt.executeQuery();
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int cols = rsmd.getColumnCount();
-        int i = 2;
-        int j = 0;
 
 
-        //add objects to the list to update with table info
-        StringBuilder sb = new StringBuilder();
-        sb.append("select * from \"").append(clazz.getSimpleName()).append("\";");
-        String sql2 = sqlString.toString();
-        PreparedStatement stmt2 = connection.prepareStatement(sql2);
-        ResultSet rs2 = stmt2.executeQuery();
+    //opens a cursor and wraps it in a stream, every resource is released by the stream's close handler
+    <T> Stream<T> stream(Class<T> clazz, EntityMetadata metadata, String sql, List<?> params) throws SQLException {
 
-        while(rs2.next()){
-            genericList.add(clazz.newInstance());
+        Trace trace = trace(Operation.STREAM, metadata, sql);
+        Connection connection;
+        try{
+            connection = readConnection();
+        }catch(SQLException | RuntimeException e){
+            trace.failed(e);
+            trace.end();
+            throw e;
+        }
+        trace.acquired();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        boolean autoCommit = true;
+
+        try{
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            stmt = connection.prepareStatement(sql);
+            stmt.setFetchSize(fetchSize);
+            for(int i = 0; i < params.size(); i++){
+                SqlBinder.bind(stmt, i + 1, params.get(i));
+            }
+            rs = stmt.executeQuery();
+            trace.executed();
+
+            RowMapper<T> mapper = new RowMapper<>(clazz, metadata, rs.getMetaData());
+            ResultSet cursor = rs;
+
+            Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL){
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action){
+                    T o;
+                    try{
+                        trace.resume();
+                        if(!cursor.next()){
+                            trace.executed();
+                            return false;
+                        }
+                        trace.executed();
+                        o = mapper.map(cursor);
+                        trace.mapped();
+                        trace.rows(1);
+                    }catch(SQLException | InstantiationException | IllegalAccessException | InvocationTargetException e){
+                        DataAccessException failure = new DataAccessException("Failed reading " + metadata.getTableName(), e);
+                        trace.failed(failure);
+                        throw failure;
+                    }
+                    action.accept(o);
+                    return true;
+                }
+            };
+
+            PreparedStatement openStmt = stmt;
+            boolean restoreAutoCommit = autoCommit;
+            //the operation lasts until the stream is closed
+            return StreamSupport.stream(rows, false).onClose(() -> {
+                closeCursor(connection, openStmt, cursor, restoreAutoCommit);
+                trace.end();
+            });
+        }catch(SQLException | RuntimeException e){
+            closeCursor(connection, stmt, rs, autoCommit);
+            trace.failed(e);
+            trace.end();
+            throw e;
         }
+    }
 
 
-        while(rs.next()){
-            //for all the fields we need
-            for(Field f:toRetrieve){
-                //for all the methods we need
-                for(Method m:invokeList){
-                    //if they match
-                    if((m.getName().toLowerCase(Locale.ROOT).contains(f.getName().toLowerCase(Locale.ROOT))) && (i<=cols)){
-                        //invoke on the object
-                        m.invoke(genericList.get(j),rs.getObject(i));
-
-                        //sets the primary keys
-                        pKeySet.invoke(genericList.get(j),rs.getObject(1));
-
-                        //increment i to move to next column
-                        i++;
-                    }
+
+    private static void closeCursor(Connection connection, Statement stmt, ResultSet rs, boolean autoCommit){
+        try{
+            try{
+                if(rs != null){
+                    rs.close();
                 }
+                if(stmt != null){
+                    stmt.close();
+                }
+                //nothing was written, this only ends the cursor's transaction
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }finally{
+                connection.close();
             }
-            //reset i to reset column and increment j to move to next row
-            i=2;
-            j++;
+        }catch(SQLException e){
+            throw new DataAccessException("Failed closing cursor", e);
         }
-
-        //return the object list
-        return genericList;
     }
 }
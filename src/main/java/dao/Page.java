@@ -0,0 +1,94 @@
+package dao;
+
+import services.EntityMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of entities read in primary key order
+ * @param <T> The entity type
+ */
+public final class Page<T> {
+
+    private final List<T> content;
+    private final int limit;
+    private final String continuationToken;
+
+    Page(List<T> content, int limit, String continuationToken){
+        this.content = Collections.unmodifiableList(content);
+        this.limit = limit;
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * @return The entities on this page, at most limit of them
+     */
+    public List<T> getContent(){
+        return content;
+    }
+
+    /**
+     * @return The page size that was requested
+     */
+    public int getLimit(){
+        return limit;
+    }
+
+    /**
+     * @return True if at least one more row follows this page
+     */
+    public boolean hasNext(){
+        return continuationToken != null;
+    }
+
+    /**
+     * @return An opaque token for ObjectDao.readPageAfter that continues after this page, or null on the last page
+     */
+    public String getContinuationToken(){
+        return continuationToken;
+    }
+
+    //the token names its table so a token from one entity can't silently page through another
+    static String encodeToken(EntityMetadata metadata, Object lastKey){
+        String raw = metadata.getTableName() + ":" + lastKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Object decodeToken(EntityMetadata metadata, String token){
+
+        String raw;
+        try{
+            raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        }catch(IllegalArgumentException e){
+            throw new IllegalArgumentException("Malformed continuation token", e);
+        }
+
+        String prefix = metadata.getTableName() + ":";
+        if(!raw.startsWith(prefix)){
+            throw new IllegalArgumentException("Continuation token does not belong to " + metadata.getTableName());
+        }
+        String key = raw.substring(prefix.length());
+
+        Class<?> type = metadata.getPrimaryKey().getType();
+        try{
+            if(type == int.class || type == Integer.class){
+                return Integer.valueOf(key);
+            }else if(type == long.class || type == Long.class){
+                return Long.valueOf(key);
+            }else if(type == short.class || type == Short.class){
+                return Short.valueOf(key);
+            }
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException("Malformed continuation token", e);
+        }
+        return key;
+    }
+
+    @Override
+    public String toString(){
+        return "Page{size=" + content.size() + ", limit=" + limit + ", hasNext=" + hasNext() + "}";
+    }
+}
@@ -0,0 +1,680 @@
+package dao;
+
+import services.ClassInspector;
+import services.CollectionMetadata;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+import services.IndexMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A select against one entity's table, compiled to parameterized sql from the entity's metadata
+ * Column names are checked against the entity's @Column and @PrimaryKey fields as the query is built,
+ * and predicate values must match the column's type, so a bad query fails before it reaches the database
+ * <pre>
+ * Query&lt;Person&gt; adults = Query.from(Person.class)
+ *         .where("age").ge(18)
+ *         .and("lName").like("Cr%")
+ *         .orderBy("age")
+ *         .limit(50);
+ * List&lt;Person&gt; people = objectDao.query(adults);
+ * </pre>
+ * Relations are loaded with the results either in the same statement through a join, or afterwards with one statement per batch of keys,
+ * so the number of statements does not grow with the number of rows
+ * <pre>
+ * Query.from(Order.class).fetchJoin("customer").fetch("lines")
+ * </pre>
+ * @param <T> The entity type
+ */
+public final class Query<T> {
+
+    private final Class<T> entityClass;
+    private final EntityMetadata metadata;
+    private final List<Predicate> predicates = new ArrayList<>();
+    private final List<String> orderBy = new ArrayList<>();
+    private final List<Fetch> fetches = new ArrayList<>();
+    private List<ColumnMetadata> projection;
+    private Integer limit;
+    private Long offset;
+
+    private Query(Class<T> entityClass){
+        this.entityClass = entityClass;
+        this.metadata = ClassInspector.getMetadata(entityClass);
+    }
+
+    /**
+     * Starts a query over every row of an entity's table
+     * @param entityClass The annotated entity class
+     * @param <T> The entity type
+     * @return A new query
+     */
+    public static <T> Query<T> from(Class<T> entityClass){
+        return new Query<>(entityClass);
+    }
+
+    /**
+     * Starts a predicate on a column, predicates are combined with and
+     * @param column The field name of a column or the primary key
+     * @return The predicate to complete
+     */
+    public Condition where(String column){
+        return new Condition(column(column));
+    }
+
+    /**
+     * Same as where, reads better after the first predicate
+     * @param column The field name of a column or the primary key
+     * @return The predicate to complete
+     */
+    public Condition and(String column){
+        return where(column);
+    }
+
+    /**
+     * Orders results by a column ascending, call repeatedly for secondary orderings
+     * @param column The field name of a column or the primary key
+     * @return This query
+     */
+    public Query<T> orderBy(String column){
+        orderBy.add(column(column).getName());
+        return this;
+    }
+
+    /**
+     * Orders results by a column descending
+     * @param column The field name of a column or the primary key
+     * @return This query
+     */
+    public Query<T> orderByDesc(String column){
+        orderBy.add(column(column).getName() + " desc");
+        return this;
+    }
+
+    /**
+     * Restricts the columns read, unselected fields keep their default values
+     * The primary key is always read so results can still be updated or deleted
+     * @param columns The field names to read
+     * @return This query
+     */
+    public Query<T> select(String... columns){
+        List<ColumnMetadata> selected = new ArrayList<>();
+        if(metadata.getPrimaryKey() != null){
+            selected.add(metadata.getPrimaryKey());
+        }
+        for(String name:columns){
+            ColumnMetadata column = column(name);
+            if(!selected.contains(column)){
+                selected.add(column);
+            }
+        }
+        this.projection = selected;
+        return this;
+    }
+
+    /**
+     * @param limit The maximum number of rows returned
+     * @return This query
+     */
+    public Query<T> limit(int limit){
+        if(limit < 0){
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @param offset The number of rows skipped
+     * @return This query
+     */
+    public Query<T> offset(long offset){
+        if(offset < 0){
+            throw new IllegalArgumentException("offset must not be negative");
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Loads a relation of every result with one extra statement per batch of keys, in (...) across the whole result
+     * Works with limit and offset, and never repeats a row
+     * @param relation The name of a @ManyToOne or @OneToMany field
+     * @return This query
+     */
+    public Query<T> fetch(String relation){
+        fetches.add(new Fetch(relation, false));
+        return this;
+    }
+
+    /**
+     * Loads a relation in the same statement with a left join
+     * A @OneToMany join repeats each result once per element, so only one may be joined and it cannot be combined with limit or offset
+     * @param relation The name of a @ManyToOne or @OneToMany field
+     * @return This query
+     */
+    public Query<T> fetchJoin(String relation){
+        fetches.add(new Fetch(relation, true));
+        return this;
+    }
+
+    public Class<T> getEntityClass(){
+        return entityClass;
+    }
+
+    List<Fetch> getFetches(){
+        return Collections.unmodifiableList(fetches);
+    }
+
+    List<Fetch> getJoinFetches(){
+        List<Fetch> joins = new ArrayList<>();
+        for(Fetch fetch:fetches){
+            if(fetch.join){
+                joins.add(fetch);
+            }
+        }
+        return joins;
+    }
+
+    /**
+     * @return The entity's columns in the order the query selects them, primary key first
+     */
+    List<ColumnMetadata> getSelectedColumns(){
+        return projection != null ? projection : allColumns(metadata);
+    }
+
+    //the same columns and order as selectAll
+    static List<ColumnMetadata> allColumns(EntityMetadata metadata){
+        List<ColumnMetadata> columns = new ArrayList<>();
+        if(metadata.getPrimaryKey() != null){
+            columns.add(metadata.getPrimaryKey());
+        }
+        columns.addAll(metadata.getColumns());
+        return columns;
+    }
+
+    EntityMetadata getMetadata(){
+        return metadata;
+    }
+
+    private ColumnMetadata column(String name){
+        ColumnMetadata column = metadata.getColumn(name);
+        if(column == null){
+            throw new IllegalArgumentException(entityClass.getSimpleName() + " has no column " + name);
+        }
+        return column;
+    }
+
+
+    /**
+     * @return The select this query compiles to, with a ? for every value
+     */
+    public String toSql(){
+
+        List<Fetch> joins = getJoinFetches();
+        if(!joins.isEmpty()){
+            return toJoinSql(joins);
+        }
+
+        StringBuilder sql = new StringBuilder();
+
+        if(projection == null){
+            //everything the entity maps, same shape as a full read
+            sql.append(metadata.getSql().selectAll());
+        }else{
+            sql.append("select ");
+            String prefix = "";
+            for(ColumnMetadata column:projection){
+                sql.append(prefix).append(column.getName());
+                prefix = ", ";
+            }
+            sql.append(" from \"").append(metadata.getTableName()).append("\"");
+        }
+
+        sql.append(toWhereSql());
+
+        if(!orderBy.isEmpty()){
+            sql.append(" order by ").append(String.join(", ", orderBy));
+        }
+        if(limit != null){
+            sql.append(" limit ?");
+        }
+        if(offset != null){
+            sql.append(" offset ?");
+        }
+        return sql.toString();
+    }
+
+    //the root table is t0 and every joined table t1, t2... so a table joined to itself stays unambiguous
+    private String toJoinSql(List<Fetch> joins){
+
+        int collections = 0;
+        for(Fetch fetch:joins){
+            if(fetch.collection != null){
+                collections++;
+            }
+        }
+        if(collections > 1){
+            throw new IllegalStateException("Only one @OneToMany relation can be joined per query, fetch the others");
+        }
+        if(collections == 1 && (limit != null || offset != null)){
+            throw new IllegalStateException("limit and offset count joined rows, use fetch instead of fetchJoin for a @OneToMany relation");
+        }
+
+        StringBuilder sql = new StringBuilder("select ");
+        String prefix = "";
+        for(ColumnMetadata column:getSelectedColumns()){
+            sql.append(prefix).append("t0.").append(column.getName());
+            prefix = ", ";
+        }
+        for(int i = 0; i < joins.size(); i++){
+            for(ColumnMetadata column:allColumns(joins.get(i).target)){
+                sql.append(", t").append(i + 1).append(".").append(column.getName());
+            }
+        }
+
+        sql.append(" from \"").append(metadata.getTableName()).append("\" t0");
+        for(int i = 0; i < joins.size(); i++){
+            Fetch fetch = joins.get(i);
+            String alias = "t" + (i + 1);
+            sql.append(" left join \"").append(fetch.target.getTableName()).append("\" ").append(alias).append(" on ");
+            if(fetch.reference != null){
+                sql.append(alias).append(".").append(fetch.target.getPrimaryKey().getName())
+                        .append(" = t0.").append(fetch.reference.getName());
+            }else{
+                sql.append(alias).append(".").append(fetch.collection.getMappedByColumn(entityClass).getName())
+                        .append(" = t0.").append(metadata.getPrimaryKey().getName());
+            }
+        }
+
+        sql.append(toWhereSql("t0."));
+
+        //a joined list comes back in primary key order, as it does when fetched in batches
+        List<String> order = new ArrayList<>();
+        for(String entry:orderBy){
+            order.add("t0." + entry);
+        }
+        for(int i = 0; i < joins.size(); i++){
+            if(joins.get(i).collection != null && joins.get(i).target.getPrimaryKey() != null){
+                order.add("t" + (i + 1) + "." + joins.get(i).target.getPrimaryKey().getName());
+            }
+        }
+        if(!order.isEmpty()){
+            sql.append(" order by ").append(String.join(", ", order));
+        }
+        if(limit != null){
+            sql.append(" limit ?");
+        }
+        if(offset != null){
+            sql.append(" offset ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Compiles an aggregate over the rows this query selects, leaving out its projection and fetches
+     * With a limit or offset the aggregate covers just the selected rows, taken in the query's order
+     * @param function An sql aggregate function such as count or sum
+     * @param column The aggregated column, or null for function(*)
+     * @return The select, taking the same parameters as toSql
+     */
+    String toAggregateSql(String function, ColumnMetadata column){
+        String argument = column == null ? "*" : column.getName();
+        if(limit == null && offset == null){
+            return "select " + function + "(" + argument + ") from \"" + metadata.getTableName() + "\"" + toWhereSql();
+        }
+        return "select " + function + "(" + argument + ") from (" + toSelectedRowsSql(column == null ? "1" : column.getName()) + ") selected";
+    }
+
+    /**
+     * @return A select answering one row when the query selects any, taking the same parameters as toSql
+     */
+    String toExistsSql(){
+        if(limit == null && offset == null){
+            return "select 1 from \"" + metadata.getTableName() + "\"" + toWhereSql() + " limit 1";
+        }
+        return "select 1 from (" + toSelectedRowsSql("1") + ") selected limit 1";
+    }
+
+    //the rows of a limited or offset query with a single column, so aggregates see the same page the query returns
+    private String toSelectedRowsSql(String selected){
+        StringBuilder sql = new StringBuilder("select ").append(selected)
+                .append(" from \"").append(metadata.getTableName()).append("\"").append(toWhereSql());
+        if(!orderBy.isEmpty()){
+            sql.append(" order by ").append(String.join(", ", orderBy));
+        }
+        if(limit != null){
+            sql.append(" limit ?");
+        }
+        if(offset != null){
+            sql.append(" offset ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @return The values for every ? in toSql, in order
+     */
+    public List<Object> getParameters(){
+        List<Object> parameters = getWhereParameters();
+        if(limit != null){
+            parameters.add(limit);
+        }
+        if(offset != null){
+            parameters.add(offset);
+        }
+        return parameters;
+    }
+
+    /**
+     * @return The where clause alone with a leading space, or an empty string if there are no predicates
+     */
+    String toWhereSql(){
+        return toWhereSql("");
+    }
+
+    private String toWhereSql(String qualifier){
+        if(predicates.isEmpty()){
+            return "";
+        }
+        StringBuilder where = new StringBuilder(" where ");
+        String prefix = "";
+        for(Predicate predicate:predicates){
+            where.append(prefix);
+            predicate.appendTo(where, qualifier);
+            prefix = " and ";
+        }
+        return where.toString();
+    }
+
+    /**
+     * @return The values for the where clause alone
+     */
+    List<Object> getWhereParameters(){
+        List<Object> parameters = new ArrayList<>();
+        for(Predicate predicate:predicates){
+            parameters.addAll(predicate.values);
+        }
+        return parameters;
+    }
+
+    /**
+     * @return The predicates added so far, in order
+     */
+    List<Predicate> getPredicates(){
+        return Collections.unmodifiableList(predicates);
+    }
+
+    /**
+     * Reports which predicates an index can serve, judged from the primary key, @Unique columns and @Indexed indexes
+     * An index serves a column it leads, or one following columns compared with = or in,
+     * partial indexes are left out since the database only uses them when the query implies their condition
+     * Negations, is not null and like patterns starting with a wildcard are never index-backed
+     * @return Each predicate's sql in order, mapped to the name of an index serving it, "primary key" or "unique",
+     * or null when the database would have to scan for it
+     */
+    public Map<String, String> getIndexUsage(){
+
+        //columns pinned to a value can be skipped over in a composite index
+        Set<ColumnMetadata> pinned = new HashSet<>();
+        for(Predicate predicate:predicates){
+            if(predicate.operator.equals(" = ?") || predicate.operator.startsWith(" in (") || predicate.operator.equals(" is null")){
+                pinned.add(predicate.column);
+            }
+        }
+
+        Map<String, String> usage = new LinkedHashMap<>();
+        for(Predicate predicate:predicates){
+            //the empty in() matches nothing without reading a row
+            if(!predicate.operator.startsWith(" ")){
+                continue;
+            }
+            StringBuilder sql = new StringBuilder();
+            predicate.appendTo(sql, "");
+            usage.put(sql.toString(), indexFor(predicate, pinned));
+        }
+        return usage;
+    }
+
+    private String indexFor(Predicate predicate, Set<ColumnMetadata> pinned){
+
+        if(predicate.operator.equals(" <> ?") || predicate.operator.equals(" is not null")){
+            return null;
+        }
+        if(predicate.operator.equals(" like ?")){
+            String pattern = (String) predicate.values.get(0);
+            if(pattern.startsWith("%") || pattern.startsWith("_")){
+                return null;
+            }
+        }
+
+        ColumnMetadata column = predicate.column;
+        if(column.isPrimaryKey()){
+            return "primary key";
+        }
+        if(column.isUnique()){
+            return "unique";
+        }
+        for(IndexMetadata index:metadata.getIndexes()){
+            int position = index.getColumns().indexOf(column);
+            if(index.isPartial() || position < 0){
+                continue;
+            }
+            if(pinned.containsAll(index.getColumns().subList(0, position))){
+                return index.getName();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString(){
+        return toSql() + " " + getParameters();
+    }
+
+
+    /**
+     * A predicate waiting for its operator and value
+     */
+    public final class Condition {
+
+        private final ColumnMetadata column;
+
+        private Condition(ColumnMetadata column){
+            this.column = column;
+        }
+
+        public Query<T> eq(Object value){
+            return add(" = ?", value);
+        }
+
+        public Query<T> ne(Object value){
+            return add(" <> ?", value);
+        }
+
+        public Query<T> gt(Object value){
+            return add(" > ?", value);
+        }
+
+        public Query<T> ge(Object value){
+            return add(" >= ?", value);
+        }
+
+        public Query<T> lt(Object value){
+            return add(" < ?", value);
+        }
+
+        public Query<T> le(Object value){
+            return add(" <= ?", value);
+        }
+
+        /**
+         * Inclusive range
+         */
+        public Query<T> between(Object low, Object high){
+            return add(" between ? and ?", low, high);
+        }
+
+        /**
+         * Matches any of the values, an empty collection matches nothing
+         */
+        public Query<T> in(Collection<?> values){
+            if(values.isEmpty()){
+                predicates.add(new Predicate(column, "1 = 0", Collections.emptyList()));
+                return Query.this;
+            }
+            StringBuilder placeholders = new StringBuilder(" in (");
+            String prefix = "";
+            for(Object value:values){
+                checkValue(value);
+                placeholders.append(prefix).append("?");
+                prefix = ", ";
+            }
+            placeholders.append(")");
+            predicates.add(new Predicate(column, placeholders.toString(), new ArrayList<>(values)));
+            return Query.this;
+        }
+
+        public Query<T> in(Object... values){
+            return in(Arrays.asList(values));
+        }
+
+        /**
+         * Sql like, % matches any run of characters and _ any single character
+         */
+        public Query<T> like(String pattern){
+            if(column.getType() != String.class){
+                throw new IllegalArgumentException(column.getName() + " is not a text column");
+            }
+            return add(" like ?", pattern);
+        }
+
+        public Query<T> isNull(){
+            predicates.add(new Predicate(column, " is null", Collections.emptyList()));
+            return Query.this;
+        }
+
+        public Query<T> isNotNull(){
+            predicates.add(new Predicate(column, " is not null", Collections.emptyList()));
+            return Query.this;
+        }
+
+        private Query<T> add(String operator, Object... values){
+            for(Object value:values){
+                checkValue(value);
+            }
+            predicates.add(new Predicate(column, operator, Arrays.asList(values)));
+            return Query.this;
+        }
+
+        private void checkValue(Object value){
+            if(value == null){
+                throw new IllegalArgumentException("Use isNull() to compare " + column.getName() + " with null");
+            }
+            checkType(column, value);
+        }
+    }
+
+    /**
+     * A value has to be something the column could hold, numbers convert between numeric types and strings into chars
+     * @throws IllegalArgumentException If the value cannot be stored in the column
+     */
+    static void checkType(ColumnMetadata column, Object value){
+        if(value != null
+                && !boxed(column.getType()).isInstance(value)
+                && !(value instanceof Number && Number.class.isAssignableFrom(boxed(column.getType())))
+                && !(value instanceof String && boxed(column.getType()) == Character.class)){
+            throw new IllegalArgumentException(column.getName() + " holds " + column.getType().getSimpleName()
+                    + ", not " + value.getClass().getSimpleName());
+        }
+    }
+
+    private static Class<?> boxed(Class<?> type){
+        if(!type.isPrimitive()){
+            return type;
+        }else if(type == int.class){
+            return Integer.class;
+        }else if(type == long.class){
+            return Long.class;
+        }else if(type == double.class){
+            return Double.class;
+        }else if(type == float.class){
+            return Float.class;
+        }else if(type == short.class){
+            return Short.class;
+        }else if(type == boolean.class){
+            return Boolean.class;
+        }else if(type == char.class){
+            return Character.class;
+        }
+        return type;
+    }
+
+
+    /**
+     * One compiled predicate
+     */
+    static final class Predicate {
+
+        private final ColumnMetadata column;
+        private final String operator;
+        private final List<Object> values;
+
+        Predicate(ColumnMetadata column, String operator, List<Object> values){
+            this.column = column;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        ColumnMetadata getColumn(){
+            return column;
+        }
+
+        void appendTo(StringBuilder sql, String qualifier){
+            //the empty in() predicate stands on its own
+            if(!operator.startsWith(" ")){
+                sql.append(operator);
+                return;
+            }
+            sql.append(qualifier).append(column.getName()).append(operator);
+        }
+    }
+
+
+    /**
+     * One relation to load with the results, resolved against the entity when it is added
+     */
+    final class Fetch {
+
+        final boolean join;
+        final ColumnMetadata reference;
+        final CollectionMetadata collection;
+        final EntityMetadata target;
+
+        private Fetch(String relation, boolean join){
+            this.join = join;
+            ColumnMetadata column = metadata.getColumn(relation);
+            if(column != null && column.isReference()){
+                this.reference = column;
+                this.collection = null;
+                this.target = ClassInspector.getMetadata(column.getReferencedClass());
+            }else if(metadata.getCollection(relation) != null){
+                this.reference = null;
+                this.collection = metadata.getCollection(relation);
+                this.target = ClassInspector.getMetadata(collection.getElementClass());
+                //fails now rather than at execution if mappedBy is wrong
+                collection.getMappedByColumn(entityClass);
+            }else{
+                throw new IllegalArgumentException(entityClass.getSimpleName() + " has no @ManyToOne or @OneToMany field " + relation);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package dao;
+
+import services.ColumnMetadata;
+import services.EntityMapper;
+import services.EntityMetadata;
+import services.PropertyAccessor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hydrates entities from one ResultSet
+ * Result columns are matched to entity columns by label once, every row after that is a straight copy by index
+ * Primitive fields are read with the matching primitive getter and written without boxing
+ * SQL NULL in a primitive column leaves the field at its Java default, as a freshly constructed object has it
+ * Rows laid out like selectAll or selectById go through the entity's generated EntityMapper when it has one
+ * @param <T> The entity type
+ */
+class RowMapper<T> {
+
+    //how each column is read, resolved once from the field type
+    private static final int OBJECT = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FLOAT = 5;
+    private static final int SHORT = 6;
+    private static final int BOOLEAN = 7;
+    private static final int CHAR = 8;
+
+    private final Class<T> clazz;
+    private final PropertyAccessor[] accessors;
+    private final int[] kinds;
+    private final int[] indexes;
+    private final EntityMapper<T> mapper;
+    private final int mapperFirst;
+    private final boolean mapperWithKey;
+
+    RowMapper(Class<T> clazz, EntityMetadata metadata, ResultSetMetaData rsmd) throws SQLException {
+        this(clazz, metadata, rsmd, 1, rsmd.getColumnCount());
+    }
+
+    /**
+     * Maps only the result columns first to last, where a join puts several entities side by side in one row
+     */
+    @SuppressWarnings("unchecked")
+    RowMapper(Class<T> clazz, EntityMetadata metadata, ResultSetMetaData rsmd, int first, int last) throws SQLException {
+
+        this.clazz = clazz;
+
+        //labels that are not entity columns (aggregates, joined tables) are simply skipped
+        List<ColumnMetadata> matched = new ArrayList<>();
+        List<Integer> matchedIndexes = new ArrayList<>();
+        for(int i = first; i <= last; i++){
+            ColumnMetadata column = metadata.getColumn(rsmd.getColumnLabel(i));
+            if(column != null){
+                matched.add(column);
+                matchedIndexes.add(i);
+            }
+        }
+
+        ColumnMetadata[] columns = matched.toArray(new ColumnMetadata[0]);
+        this.accessors = new PropertyAccessor[columns.length];
+        this.kinds = new int[columns.length];
+        this.indexes = new int[columns.length];
+        for(int i = 0; i < indexes.length; i++){
+            accessors[i] = columns[i].getAccessor();
+            kinds[i] = kind(columns[i].getType());
+            indexes[i] = matchedIndexes.get(i);
+        }
+
+        //the generated mapper reads by position, so it only takes the two layouts it was generated for
+        EntityMapper<T> generated = (EntityMapper<T>) metadata.getMapper();
+        List<ColumnMetadata> withKey = new ArrayList<>(metadata.getColumns());
+        if(metadata.getPrimaryKey() != null){
+            withKey.add(0, metadata.getPrimaryKey());
+        }
+        boolean contiguous = matched.size() == last - first + 1;
+        if(generated != null && contiguous && matched.equals(withKey)){
+            this.mapper = generated;
+            this.mapperWithKey = metadata.getPrimaryKey() != null;
+        }else if(generated != null && contiguous && matched.equals(metadata.getColumns())){
+            this.mapper = generated;
+            this.mapperWithKey = false;
+        }else{
+            this.mapper = null;
+            this.mapperWithKey = false;
+        }
+        this.mapperFirst = first;
+    }
+
+    /**
+     * Creates a new entity from the current row
+     */
+    T map(ResultSet rs) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+        T o = mapper != null ? mapper.newInstance() : clazz.newInstance();
+        mapInto(o, rs);
+        return o;
+    }
+
+    /**
+     * Copies the current row onto an existing entity
+     */
+    @SuppressWarnings("unchecked")
+    void mapInto(Object o, ResultSet rs) throws SQLException, IllegalAccessException, InvocationTargetException {
+        if(mapper != null){
+            mapper.mapInto((T) o, rs, mapperFirst, mapperWithKey);
+            return;
+        }
+        for(int i = 0; i < kinds.length; i++){
+            PropertyAccessor accessor = accessors[i];
+            int index = indexes[i];
+
+            //primitive getters answer 0 or false for NULL, wasNull tells the two apart and NULL is skipped
+            switch(kinds[i]){
+                case STRING:
+                    accessor.set(o, rs.getString(index));
+                    break;
+                case INT:
+                    int intValue = rs.getInt(index);
+                    if(intValue != 0 || !rs.wasNull()){
+                        accessor.setInt(o, intValue);
+                    }
+                    break;
+                case LONG:
+                    long longValue = rs.getLong(index);
+                    if(longValue != 0 || !rs.wasNull()){
+                        accessor.setLong(o, longValue);
+                    }
+                    break;
+                case DOUBLE:
+                    double doubleValue = rs.getDouble(index);
+                    if(doubleValue != 0 || !rs.wasNull()){
+                        accessor.setDouble(o, doubleValue);
+                    }
+                    break;
+                case FLOAT:
+                    float floatValue = rs.getFloat(index);
+                    if(floatValue != 0 || !rs.wasNull()){
+                        accessor.setFloat(o, floatValue);
+                    }
+                    break;
+                case SHORT:
+                    short shortValue = rs.getShort(index);
+                    if(shortValue != 0 || !rs.wasNull()){
+                        accessor.setShort(o, shortValue);
+                    }
+                    break;
+                case BOOLEAN:
+                    boolean booleanValue = rs.getBoolean(index);
+                    if(booleanValue || !rs.wasNull()){
+                        accessor.setBoolean(o, booleanValue);
+                    }
+                    break;
+                case CHAR:
+                    //jdbc has no char getter, an empty string is treated like NULL
+                    String charValue = rs.getString(index);
+                    if(charValue != null && !charValue.isEmpty()){
+                        accessor.setChar(o, charValue.charAt(0));
+                    }
+                    break;
+                default:
+                    accessor.set(o, rs.getObject(index));
+            }
+        }
+    }
+
+
+
+    private static int kind(Class<?> type){
+        if(type == String.class){
+            return STRING;
+        }else if(type == int.class){
+            return INT;
+        }else if(type == long.class){
+            return LONG;
+        }else if(type == double.class){
+            return DOUBLE;
+        }else if(type == float.class){
+            return FLOAT;
+        }else if(type == short.class){
+            return SHORT;
+        }else if(type == boolean.class){
+            return BOOLEAN;
+        }else if(type == char.class){
+            return CHAR;
+        }
+        //wrappers and anything else keep null and go through the accessor's conversion
+        return OBJECT;
+    }
+}
@@ -0,0 +1,95 @@
+package dao;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which entity tables are known to exist in one database, so inserts only issue DDL the first time
+ * Every ObjectDao on the same DataSource shares one registry
+ * Tables dropped through ObjectDao are forgotten automatically, call reset after dropping tables any other way
+ */
+public final class SchemaRegistry {
+
+    private static final Map<DataSource, SchemaRegistry> REGISTRIES = new WeakHashMap<>();
+
+    private final Set<Class<?>> registered = new LinkedHashSet<>();
+    private final Set<Class<?>> verified = ConcurrentHashMap.newKeySet();
+
+    private SchemaRegistry(){
+
+    }
+
+    /**
+     * @param dataSource The database
+     * @return The registry shared by everything using that data source
+     */
+    static synchronized SchemaRegistry of(DataSource dataSource){
+        return REGISTRIES.computeIfAbsent(dataSource, d -> new SchemaRegistry());
+    }
+
+    /**
+     * Adds entity classes for ObjectDao.bootstrap to create or validate
+     * @param classes The entity classes
+     */
+    public synchronized void register(Class<?>... classes){
+        Collections.addAll(registered, classes);
+    }
+
+    /**
+     * @return The registered entity classes in registration order
+     */
+    public synchronized Set<Class<?>> getRegistered(){
+        return Collections.unmodifiableSet(new LinkedHashSet<>(registered));
+    }
+
+    /**
+     * @param clazz An entity class
+     * @return True if the class's table has been created or validated since the registry was last reset
+     */
+    public boolean isVerified(Class<?> clazz){
+        return verified.contains(clazz);
+    }
+
+    void markVerified(Class<?> clazz){
+        verified.add(clazz);
+    }
+
+    void forget(Class<?> clazz){
+        verified.remove(clazz);
+    }
+
+    /**
+     * @param e A failed statement's exception
+     * @return True if the database reported a missing table, 42P01 on PostgreSQL,
+     * 42S02 on H2, or 42S03 and 42S04 when H2 adds a suggestion or finds the database empty
+     */
+    static boolean isMissingTable(SQLException e){
+        for(Throwable t = e; t != null; t = t.getCause()){
+            if(t instanceof SQLException){
+                String state = ((SQLException) t).getSQLState();
+                if("42P01".equals(state) || "42S02".equals(state) || "42S03".equals(state) || "42S04".equals(state)){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets every verified table, the next insert of each class issues its DDL again
+     */
+    public void reset(){
+        verified.clear();
+    }
+
+    @Override
+    public String toString(){
+        return "SchemaRegistry{registered=" + getRegistered() + ", verified=" + verified + "}";
+    }
+}
@@ -1,13 +1,25 @@
 package dao;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Exception handling for ObjectDao
  */
 public class SecureDao {
-    ObjectDao objectDao = new ObjectDao();
+    ObjectDao objectDao;
+
+    public SecureDao(){
+        this(new ObjectDao());
+    }
+
+    public SecureDao(ObjectDao objectDao){
+        this.objectDao = objectDao;
+    }
 
     public void createSTable(Class<?> clazz){
         try{
@@ -17,6 +29,14 @@ public class SecureDao {
         }
     }
 
+    public void bootstrapS(Class<?>... classes){
+        try{
+            objectDao.bootstrap(classes);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void createSObject(Object o){
         try{
             objectDao.createObject(o);
@@ -25,6 +45,51 @@ public class SecureDao {
         }
     }
 
+    public int createSObjects(Collection<?> objects){
+        try{
+            return objectDao.createObjects(objects);
+        } catch (SQLException | InvocationTargetException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public int createSObjects(Stream<?> objects){
+        try{
+            return objectDao.createObjects(objects);
+        } catch (SQLException | InvocationTargetException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public int upsertSObject(Object o){
+        try{
+            return objectDao.upsert(o);
+        } catch (SQLException | InvocationTargetException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public int upsertSObjects(Collection<?> objects){
+        try{
+            return objectDao.upsertAll(objects);
+        } catch (SQLException | InvocationTargetException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public <T> long copySObjects(Class<T> clazz, Stream<? extends T> objects, CopyFormat format){
+        try{
+            return objectDao.copyObjects(clazz, objects, format);
+        } catch (SQLException | InvocationTargetException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
     public <T> void deleteSObject(Class<?> clazz, int keyInt){
         try{
             objectDao.deleteObject(clazz,keyInt);
@@ -50,6 +115,104 @@ public class SecureDao {
         return null;
     }
 
+    public <T> Map<Object, T> readSObjects(Class<T> clazz, Collection<?> keys){
+        try{
+            return objectDao.readObjects(clazz, keys);
+        } catch (SQLException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public long countSObjects(Class<?> clazz){
+        try{
+            return objectDao.count(clazz);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public long countSObjects(Query<?> query){
+        try{
+            return objectDao.count(query);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public boolean existsSObject(Class<?> clazz, Object key){
+        try{
+            return objectDao.exists(clazz, key);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    public boolean existsSObjects(Query<?> query){
+        try{
+            return objectDao.exists(query);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    public double sumSColumn(Query<?> query, String column){
+        try{
+            return objectDao.sum(query, column);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Double.NaN;
+    }
+
+    public double minSColumn(Query<?> query, String column){
+        try{
+            return objectDao.min(query, column);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Double.NaN;
+    }
+
+    public double maxSColumn(Query<?> query, String column){
+        try{
+            return objectDao.max(query, column);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Double.NaN;
+    }
+
+    public double avgSColumn(Query<?> query, String column){
+        try{
+            return objectDao.avg(query, column);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Double.NaN;
+    }
+
+    public <T> void fetchSRelations(Collection<T> objects, String... relations){
+        try{
+            objectDao.fetchRelations(objects, relations);
+        } catch (SQLException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int deleteSObjects(Class<?> clazz, Collection<?> keys){
+        try{
+            return objectDao.deleteObjects(clazz, keys);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
     public void dropSTable(Class<?> clazz){
         try{
             objectDao.dropTable(clazz);
@@ -67,6 +230,64 @@ public class SecureDao {
         }
     }
 
+    public int updateSObject(Object o){
+        try{
+            return objectDao.updateObject(o);
+        } catch (SQLException | InvocationTargetException | IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    public Session openSSession(){
+        return objectDao.openSession();
+    }
+
+    public <T> Page<T> readSPage(Class<T> clazz, int limit, long offset){
+        try{
+            return objectDao.readPage(clazz, limit, offset);
+        } catch (SQLException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public <T> Page<T> readSPageAfter(Class<T> clazz, String continuationToken, int limit){
+        try{
+            return objectDao.readPageAfter(clazz, continuationToken, limit);
+        } catch (SQLException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public <T> List<T> querySObjects(Query<T> query){
+        try{
+            return objectDao.query(query);
+        } catch (SQLException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public <T> Stream<T> streamAllSObjects(Class<T> clazz){
+        try{
+            return objectDao.streamAllObjects(clazz);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Stream.empty();
+    }
+
+    public <T> long forEachSObject(Class<T> clazz, Consumer<? super T> action){
+        try{
+            return objectDao.forEachObject(clazz, action);
+        } catch (SQLException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
     public <T> List<T> readAllSObjects(Class<T> clazz){
         try{
             return objectDao.readAllObjects(clazz);
@@ -0,0 +1,353 @@
+package dao;
+
+import services.ClassInspector;
+import services.ColumnMetadata;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A short lived view of an ObjectDao with an identity map
+ * Within one session a primary key always resolves to the same instance, and only the first find for a key reaches the database
+ * Rows read by findAll and query are merged into the map, so an object already held by the session is returned in place of the fresh row
+ * Every object the session holds is snapshotted when it arrives, update and flush compare against the snapshot and write only the columns that changed
+ * Sessions are cheap, meant to live for one request and are not thread safe
+ * <pre>
+ * try(Session session = objectDao.openSession()){
+ *     Person p = session.find(Person.class, 7);
+ *     Person same = session.find(Person.class, 7);   //no round trip, p == same
+ *     p.setAge(31);
+ *     session.flush();                                 //update "Person" set age = ? where id = ?
+ * }
+ * </pre>
+ */
+public class Session implements AutoCloseable {
+
+    private final ObjectDao objectDao;
+    private final Map<Class<?>, Map<Object, Object>> identityMap = new HashMap<>();
+
+    //column values of each held object as last read or written, keyed by instance
+    private final Map<Object, Object[]> snapshots = new IdentityHashMap<>();
+
+    private long hits;
+    private long misses;
+    private boolean closed;
+
+    Session(ObjectDao objectDao){
+        this.objectDao = objectDao;
+    }
+
+    /**
+     * Reads an object by primary key, from the identity map if this session has already seen it
+     * @param clazz The entity class
+     * @param key The primary key
+     * @return The object, or null if there is no such row
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     * @throws InstantiationException
+     */
+    public <T> T find(Class<T> clazz, Object key) throws SQLException, InvocationTargetException, IllegalAccessException, InstantiationException {
+
+        checkOpen();
+        key = normalize(clazz, key);
+        Map<Object, Object> objects = objects(clazz);
+
+        Object o = objects.get(key);
+        if(o != null){
+            hits++;
+            return clazz.cast(o);
+        }
+
+        misses++;
+        T found = objectDao.findObject(clazz, key);
+        if(found != null){
+            manage(key, found);
+        }
+        return found;
+    }
+
+    /**
+     * Reads every object of a class, reusing instances this session already holds
+     * @param clazz The entity class
+     * @return Every object of the class
+     * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public <T> List<T> findAll(Class<T> clazz) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+        checkOpen();
+        return merge(clazz, objectDao.readAllObjects(clazz));
+    }
+
+    /**
+     * Runs a query, reusing instances this session already holds
+     * @param query The query
+     * @return Every matching object in query order
+     * @throws SQLException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public <T> List<T> query(Query<T> query) throws SQLException, InstantiationException, IllegalAccessException, InvocationTargetException {
+        checkOpen();
+        return merge(query.getEntityClass(), objectDao.query(query));
+    }
+
+    /**
+     * Inserts an object and adds it to the identity map under its generated key
+     * @param o The object to insert
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public void create(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+        checkOpen();
+        objectDao.createObject(o);
+        Object key = keyOf(o);
+        if(key != null){
+            manage(key, o);
+        }
+    }
+
+    /**
+     * Writes an object to its row
+     * An object the session holds only has its changed columns written, and nothing at all is sent when none changed
+     * Any other object has every column written and becomes the instance held for its key
+     * @param o The object to update
+     * @return The number of rows updated, 0 if nothing changed or the row is gone
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int update(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+        checkOpen();
+        Object key = keyOf(o);
+
+        int updated;
+        Object[] snapshot = snapshots.get(o);
+        if(snapshot != null){
+            BitSet changed = DirtyUpdate.diff(ClassInspector.getMetadata(o.getClass()), o, snapshot);
+            if(changed.isEmpty()){
+                return 0;
+            }
+            updated = objectDao.updateDirty(Collections.singletonList(new DirtyUpdate(o, changed)));
+        }else{
+            updated = objectDao.updateObject(o);
+        }
+
+        if(updated > 0){
+            manage(key, o);
+        }else{
+            //the row is gone, so is anything we held for it
+            unmanage(o.getClass(), key);
+        }
+        return updated;
+    }
+
+    /**
+     * Writes every held object that changed since it was read or last written
+     * Objects sharing the same set of changed columns are sent as one JDBC batch, all in one transaction
+     * @return The number of objects written
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int flush() throws SQLException, InvocationTargetException, IllegalAccessException {
+        checkOpen();
+
+        List<DirtyUpdate> dirty = new ArrayList<>();
+        for(Map.Entry<Object, Object[]> held:snapshots.entrySet()){
+            Object o = held.getKey();
+            BitSet changed = DirtyUpdate.diff(ClassInspector.getMetadata(o.getClass()), o, held.getValue());
+            if(!changed.isEmpty()){
+                dirty.add(new DirtyUpdate(o, changed));
+            }
+        }
+
+        objectDao.updateDirty(dirty);
+        for(DirtyUpdate update:dirty){
+            snapshots.put(update.getEntity(), snapshot(update.getEntity()));
+        }
+        return dirty.size();
+    }
+
+    /**
+     * @param o An object
+     * @return True if the session holds the object and it changed since it was read or last written
+     */
+    public boolean isDirty(Object o) throws InvocationTargetException, IllegalAccessException {
+        Object[] snapshot = snapshots.get(o);
+        return snapshot != null && !DirtyUpdate.diff(ClassInspector.getMetadata(o.getClass()), o, snapshot).isEmpty();
+    }
+
+    /**
+     * Deletes an object's row and drops it from the identity map
+     * @param o The object to delete
+     * @return The number of rows deleted
+     * @throws SQLException
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int delete(Object o) throws SQLException, InvocationTargetException, IllegalAccessException {
+        checkOpen();
+        Object key = keyOf(o);
+        unmanage(o.getClass(), key);
+        return objectDao.deleteByKey(o.getClass(), key);
+    }
+
+    /**
+     * Deletes a row by primary key and drops it from the identity map
+     * @param clazz The entity class
+     * @param key The primary key
+     * @return The number of rows deleted
+     * @throws SQLException
+     */
+    public int delete(Class<?> clazz, Object key) throws SQLException {
+        checkOpen();
+        key = normalize(clazz, key);
+        unmanage(clazz, key);
+        return objectDao.deleteByKey(clazz, key);
+    }
+
+    /**
+     * @return True if the session holds an instance for the key
+     */
+    public boolean contains(Class<?> clazz, Object key){
+        Map<Object, Object> objects = identityMap.get(clazz);
+        return objects != null && objects.containsKey(normalize(clazz, key));
+    }
+
+    /**
+     * Forgets one object, the next find for its key reads it again
+     */
+    public void evict(Object o) throws InvocationTargetException, IllegalAccessException {
+        unmanage(o.getClass(), keyOf(o));
+    }
+
+    /**
+     * Forgets every object without writing pending changes, statistics are kept
+     */
+    public void clear(){
+        identityMap.clear();
+        snapshots.clear();
+    }
+
+    /**
+     * @return The number of objects the session holds
+     */
+    public int size(){
+        int size = 0;
+        for(Map<Object, Object> objects:identityMap.values()){
+            size += objects.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of finds answered from the identity map
+     */
+    public long getHits(){
+        return hits;
+    }
+
+    /**
+     * @return The number of finds that went to the database
+     */
+    public long getMisses(){
+        return misses;
+    }
+
+    /**
+     * @return Hits over all finds, 0 before the first find
+     */
+    public double getHitRate(){
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public ObjectDao getObjectDao(){
+        return objectDao;
+    }
+
+    /**
+     * Clears the identity map without writing pending changes, the session cannot be used afterwards
+     */
+    @Override
+    public void close(){
+        clear();
+        closed = true;
+    }
+
+
+    private void checkOpen(){
+        if(closed){
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+
+    private Map<Object, Object> objects(Class<?> clazz){
+        return identityMap.computeIfAbsent(clazz, c -> new HashMap<>());
+    }
+
+    private void manage(Object key, Object o) throws InvocationTargetException, IllegalAccessException {
+        Object replaced = objects(o.getClass()).put(key, o);
+        if(replaced != null && replaced != o){
+            snapshots.remove(replaced);
+        }
+        snapshots.put(o, snapshot(o));
+    }
+
+    private void unmanage(Class<?> clazz, Object key){
+        Map<Object, Object> objects = identityMap.get(clazz);
+        if(objects != null){
+            Object removed = objects.remove(key);
+            if(removed != null){
+                snapshots.remove(removed);
+            }
+        }
+    }
+
+    private static Object[] snapshot(Object o) throws InvocationTargetException, IllegalAccessException {
+        return EntityCache.disassemble(ClassInspector.getMetadata(o.getClass()), o);
+    }
+
+    private static Object keyOf(Object o) throws InvocationTargetException, IllegalAccessException {
+        ColumnMetadata pKey = ClassInspector.getMetadata(o.getClass()).getPrimaryKey();
+        if(pKey == null){
+            throw new IllegalArgumentException(o.getClass().getSimpleName() + " has no primary key");
+        }
+        return pKey.getAccessor().get(o);
+    }
+
+    //7 and 7L must find the same entry, so keys take the primary key's own type
+    private static Object normalize(Class<?> clazz, Object key){
+        ColumnMetadata pKey = ClassInspector.getMetadata(clazz).getPrimaryKey();
+        return pKey == null ? key : pKey.getAccessor().coerce(key);
+    }
+
+    //rows the session already holds resolve to the held instance, new rows are added
+    private <T> List<T> merge(Class<T> clazz, List<T> rows) throws InvocationTargetException, IllegalAccessException {
+        Map<Object, Object> objects = objects(clazz);
+        List<T> merged = new ArrayList<>(rows.size());
+        for(T row:rows){
+            Object key = keyOf(row);
+            Object held = objects.get(key);
+            if(held == null){
+                manage(key, row);
+                merged.add(row);
+            }else{
+                merged.add(clazz.cast(held));
+            }
+        }
+        return merged;
+    }
+}
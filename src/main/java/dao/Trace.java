@@ -0,0 +1,121 @@
+package dao;
+
+import metrics.Operation;
+import metrics.OperationEvent;
+import metrics.OperationListener;
+import services.EntityMetadata;
+
+/**
+ * Times the phases of one ObjectDao operation for an OperationListener
+ * Without a listener every call lands on a shared instance that does nothing, not even read the clock
+ */
+class Trace {
+
+    static final Trace DISABLED = new Trace(null, null, null, null);
+
+    private final OperationListener listener;
+    private final Operation operation;
+    private final EntityMetadata metadata;
+    private final String sql;
+
+    private long start;
+    private long mark;
+    private long acquireNanos;
+    private long executeNanos;
+    private long mappingNanos;
+    private long rows;
+    private Throwable failure;
+    private boolean ended;
+
+    private Trace(OperationListener listener, Operation operation, EntityMetadata metadata, String sql){
+        this.listener = listener;
+        this.operation = operation;
+        this.metadata = metadata;
+        this.sql = sql;
+        this.start = listener == null ? 0 : System.nanoTime();
+        this.mark = start;
+    }
+
+    static Trace begin(OperationListener listener, Operation operation, EntityMetadata metadata, String sql){
+        return listener == null ? DISABLED : new Trace(listener, operation, metadata, sql);
+    }
+
+    /**
+     * Time since the last mark was spent getting a connection
+     */
+    void acquired(){
+        if(listener != null){
+            acquireNanos += lap();
+        }
+    }
+
+    /**
+     * Time since acquireStart was spent getting a connection, for traces begun after the connection was borrowed
+     * @param acquireStart System.nanoTime() taken before borrowing
+     */
+    void acquired(long acquireStart){
+        if(listener != null){
+            acquireNanos += mark - acquireStart;
+            start = Math.min(start, acquireStart);
+        }
+    }
+
+    /**
+     * Time since the last mark was spent running statements
+     */
+    void executed(){
+        if(listener != null){
+            executeNanos += lap();
+        }
+    }
+
+    /**
+     * Time since the last mark was spent mapping rows
+     */
+    void mapped(){
+        if(listener != null){
+            mappingNanos += lap();
+        }
+    }
+
+    /**
+     * Starts the next phase here, time since the last mark is left out of every phase
+     */
+    void resume(){
+        if(listener != null){
+            mark = System.nanoTime();
+        }
+    }
+
+    void rows(long count){
+        rows += count;
+    }
+
+    void failed(Throwable t){
+        failure = t;
+    }
+
+    /**
+     * Reports the operation once, later calls do nothing
+     */
+    void end(){
+        if(listener == null || ended){
+            return;
+        }
+        ended = true;
+        long total = System.nanoTime() - start;
+        try{
+            listener.onOperation(new OperationEvent(operation, metadata.getEntityClass(), metadata.getTableName(), sql, rows,
+                    acquireNanos, executeNanos, mappingNanos, total, failure));
+        }catch(RuntimeException e){
+            //a broken listener must not break the operation it observes
+        }
+    }
+
+    private long lap(){
+        long now = System.nanoTime();
+        long lap = now - mark;
+        mark = now;
+        return lap;
+    }
+}
@@ -0,0 +1,392 @@
+package dao;
+
+import metrics.Operation;
+import services.ClassInspector;
+import services.ColumnMetadata;
+import services.EntityMetadata;
+import util.RoutingDataSource;
+import util.SqlBinder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * One transaction on one pooled connection, with writes queued in memory and sent together
+ * Nothing reaches the database until flush or commit, which send the queue as JDBC batches in the order it was queued
+ * Consecutive writes of one kind form a step: inserts in the order their classes were first queued, updates in table name order,
+ * deletes in reverse class order, so a delete queued before an insert of the same unique value always runs first
+ * Generated keys are written back to inserted objects when they are flushed
+ * Every class in a flushed step reports one event to the ObjectDao's OperationListener
+ * Reads through ObjectDao borrow their own connections and see neither queued writes nor flushed ones until commit
+ * A unit of work is not thread safe, and closing it without committing rolls everything back
+ * <pre>
+ * try(UnitOfWork work = objectDao.beginUnitOfWork()){
+ *     work.create(order);
+ *     work.update(customer);
+ *     work.delete(Cart.class, 12);
+ *     work.commit();
+ * }
+ * </pre>
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private final ObjectDao objectDao;
+    private final Connection connection;
+    private final boolean autoCommit;
+
+    //queued writes as steps in caller order, each step holding one kind of write grouped by class
+    private final List<Step> steps = new ArrayList<>();
+
+    //everything flushed so far, invalidated in the second-level cache once the transaction ends
+    private final Set<Class<?>> insertedClasses = new LinkedHashSet<>();
+    //tables created inside the transaction, a rollback undoes their ddl on PostgreSQL
+    private final Set<Class<?>> createdClasses = new LinkedHashSet<>();
+    private final List<Object[]> writtenKeys = new ArrayList<>();
+
+    //keeps this thread's reads on the primary while the transaction is open, null without routing
+    private final RoutingDataSource.Pin pin;
+
+    private boolean finished;
+
+    UnitOfWork(ObjectDao objectDao) throws SQLException {
+        this.objectDao = objectDao;
+        this.connection = objectDao.writeConnection();
+        try{
+            this.autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+        }catch(SQLException e){
+            connection.close();
+            throw e;
+        }
+        this.pin = objectDao.pinPrimary();
+    }
+
+    /**
+     * Queues an insert, the generated key is written back when the insert is flushed
+     * @param o The object to insert
+     */
+    public void create(Object o){
+        queue(Kind.INSERT, o.getClass(), o);
+    }
+
+    /**
+     * Queues an update of every column by the object's primary key
+     * @param o The object to update
+     */
+    public void update(Object o){
+        queue(Kind.UPDATE, o.getClass(), o);
+    }
+
+    /**
+     * Queues a delete by the object's primary key
+     * @param o The object to delete
+     */
+    public void delete(Object o) throws InvocationTargetException, IllegalAccessException {
+        delete(o.getClass(), key(ClassInspector.getMetadata(o.getClass()), o));
+    }
+
+    /**
+     * Queues a delete by primary key
+     * @param clazz The entity class
+     * @param key The primary key
+     */
+    public void delete(Class<?> clazz, Object key){
+        queue(Kind.DELETE, clazz, key);
+    }
+
+    /**
+     * @return The number of queued writes not yet flushed
+     */
+    public int getPendingCount(){
+        int pending = 0;
+        for(Step step:steps){
+            for(List<Object> queued:step.queued.values()){
+                pending += queued.size();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Sends every queued write inside the transaction without committing it
+     * @return The number of rows written
+     * @throws SQLException If a statement fails, the transaction is rolled back and the unit of work ends
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int flush() throws SQLException, InvocationTargetException, IllegalAccessException {
+        checkOpen();
+        try{
+            int count = 0;
+            for(Step step:steps){
+                switch(step.kind){
+                    case INSERT:
+                        count += flushInserts(step.queued);
+                        break;
+                    case UPDATE:
+                        count += flushUpdates(step.queued);
+                        break;
+                    default:
+                        count += flushDeletes(step.queued);
+                }
+            }
+            steps.clear();
+            return count;
+        }catch(SQLException | InvocationTargetException | IllegalAccessException | RuntimeException e){
+            rollbackAfter(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes the queue, commits and returns the connection to the pool
+     * @return The number of rows written by the final flush
+     * @throws SQLException If anything fails, the transaction is rolled back
+     * @throws InvocationTargetException
+     * @throws IllegalAccessException
+     */
+    public int commit() throws SQLException, InvocationTargetException, IllegalAccessException {
+        int count = flush();
+        try{
+            connection.commit();
+        }catch(SQLException e){
+            rollbackAfter(e);
+            throw e;
+        }
+        finish(true);
+        return count;
+    }
+
+    /**
+     * Discards the queue and everything flushed, and returns the connection to the pool
+     * @throws SQLException
+     */
+    public void rollback() throws SQLException {
+        if(finished){
+            return;
+        }
+        try{
+            connection.rollback();
+        }finally{
+            finish(false);
+        }
+    }
+
+    /**
+     * @return True once the unit of work has committed or rolled back
+     */
+    public boolean isFinished(){
+        return finished;
+    }
+
+    /**
+     * Rolls back unless commit already succeeded
+     */
+    @Override
+    public void close() throws SQLException {
+        rollback();
+    }
+
+
+    private int flushInserts(Map<Class<?>, List<Object>> inserts) throws SQLException, InvocationTargetException, IllegalAccessException {
+        int count = 0;
+        for(Map.Entry<Class<?>, List<Object>> queued:inserts.entrySet()){
+            Class<?> clazz = queued.getKey();
+            EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+            Trace trace = objectDao.trace(Operation.BATCH_INSERT, metadata, metadata.getSql().insert());
+            try{
+                if(objectDao.ensureTable(connection, clazz)){
+                    createdClasses.add(clazz);
+                }
+                insertedClasses.add(clazz);
+                try(InsertBatch batch = new InsertBatch(connection, metadata)){
+                    int rows = 0;
+                    for(Object o:queued.getValue()){
+                        batch.add(o);
+                        if(batch.size() >= objectDao.getBatchSize()){
+                            rows += batch.flush();
+                        }
+                    }
+                    rows += batch.flush();
+                    trace.executed();
+                    trace.rows(rows);
+                    count += rows;
+                }
+            }catch(Throwable t){
+                trace.failed(t);
+                throw t;
+            }finally{
+                trace.end();
+            }
+        }
+        return count;
+    }
+
+    private int flushUpdates(Map<Class<?>, List<Object>> updates) throws SQLException, InvocationTargetException, IllegalAccessException {
+        int count = 0;
+        //a fixed table order keeps two units of work updating the same tables from deadlocking
+        Map<String, Class<?>> byTable = new TreeMap<>();
+        for(Class<?> clazz:updates.keySet()){
+            byTable.put(ClassInspector.getMetadata(clazz).getTableName(), clazz);
+        }
+        for(Class<?> clazz:byTable.values()){
+            EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+            ColumnMetadata pKey = metadata.getPrimaryKey();
+            Trace trace = objectDao.trace(Operation.UPDATE, metadata, metadata.getSql().update());
+            try(PreparedStatement stmt = connection.prepareStatement(metadata.getSql().update())){
+                int rows = 0;
+                int pending = 0;
+                for(Object o:updates.get(clazz)){
+                    Object key = key(metadata, o);
+                    int next = InsertBatch.bindColumns(stmt, metadata, o);
+                    SqlBinder.bind(stmt, next, key, pKey.getType());
+                    stmt.addBatch();
+                    writtenKeys.add(new Object[]{clazz, key});
+                    if(++pending >= objectDao.getBatchSize()){
+                        rows += ObjectDao.rowsAffected(stmt.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if(pending > 0){
+                    rows += ObjectDao.rowsAffected(stmt.executeBatch());
+                }
+                trace.executed();
+                trace.rows(rows);
+                count += rows;
+            }catch(Throwable t){
+                trace.failed(t);
+                throw t;
+            }finally{
+                trace.end();
+            }
+        }
+        return count;
+    }
+
+    private int flushDeletes(Map<Class<?>, List<Object>> deletes) throws SQLException {
+        int count = 0;
+        //children are usually queued after their parents, so delete them first
+        List<Class<?>> classes = new ArrayList<>(deletes.keySet());
+        for(int i = classes.size() - 1; i >= 0; i--){
+            Class<?> clazz = classes.get(i);
+            EntityMetadata metadata = ClassInspector.getMetadata(clazz);
+            ColumnMetadata pKey = metadata.getPrimaryKey();
+            Trace trace = objectDao.trace(Operation.DELETE_MANY, metadata, metadata.getSql().deleteById());
+            try(PreparedStatement stmt = connection.prepareStatement(metadata.getSql().deleteById())){
+                int rows = 0;
+                int pending = 0;
+                for(Object key:deletes.get(clazz)){
+                    SqlBinder.bind(stmt, 1, key, pKey.getType());
+                    stmt.addBatch();
+                    writtenKeys.add(new Object[]{clazz, key});
+                    if(++pending >= objectDao.getBatchSize()){
+                        rows += ObjectDao.rowsAffected(stmt.executeBatch());
+                        pending = 0;
+                    }
+                }
+                if(pending > 0){
+                    rows += ObjectDao.rowsAffected(stmt.executeBatch());
+                }
+                trace.executed();
+                trace.rows(rows);
+                count += rows;
+            }catch(Throwable t){
+                trace.failed(t);
+                throw t;
+            }finally{
+                trace.end();
+            }
+        }
+        return count;
+    }
+
+    //the original failure matters more than one from the rollback
+    private void rollbackAfter(Exception e){
+        try{
+            rollback();
+        }catch(SQLException rollbackFailure){
+            e.addSuppressed(rollbackFailure);
+        }
+    }
+
+    private void finish(boolean committed) throws SQLException {
+        finished = true;
+        steps.clear();
+        try{
+            connection.setAutoCommit(autoCommit);
+        }finally{
+            connection.close();
+            if(pin != null){
+                pin.close();
+            }
+
+            EntityCache cache = objectDao.getEntityCache();
+            for(Object[] written:writtenKeys){
+                cache.invalidate((Class<?>) written[0], written[1]);
+            }
+            if(committed){
+                for(Class<?> clazz:insertedClasses){
+                    objectDao.inserted(clazz);
+                }
+            }else{
+                //ddl run in the transaction went with the rollback
+                for(Class<?> clazz:createdClasses){
+                    objectDao.getSchemaRegistry().forget(clazz);
+                }
+            }
+        }
+    }
+
+    //a write joins the last step when it is of the same kind, otherwise it starts the next one
+    private void queue(Kind kind, Class<?> clazz, Object value){
+        checkOpen();
+        Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+        if(last == null || last.kind != kind){
+            last = new Step(kind);
+            steps.add(last);
+        }
+        last.queued.computeIfAbsent(clazz, c -> new ArrayList<>()).add(value);
+    }
+
+    private void checkOpen(){
+        if(finished){
+            throw new IllegalStateException("Unit of work has already ended");
+        }
+    }
+
+    private static Object key(EntityMetadata metadata, Object o) throws InvocationTargetException, IllegalAccessException {
+        if(metadata.getPrimaryKey() == null){
+            throw new IllegalArgumentException(metadata.getEntityClass().getSimpleName() + " has no primary key");
+        }
+        return metadata.getPrimaryKey().getAccessor().get(o);
+    }
+
+
+    private enum Kind {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    /**
+     * A run of consecutive queued writes of one kind, by class in the order each class was first queued
+     */
+    private static final class Step {
+
+        private final Kind kind;
+        private final Map<Class<?>, List<Object>> queued = new LinkedHashMap<>();
+
+        Step(Kind kind){
+            this.kind = kind;
+        }
+    }
+}
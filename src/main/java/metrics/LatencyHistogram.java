@@ -0,0 +1,123 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in the style of HdrHistogram
+ * Values below 128ns are exact, above that every power of two is split into 64 buckets,
+ * so any reported percentile is within about 1.6% of the true value, from nanoseconds up to about an hour
+ * Recording is a few atomic increments and never allocates
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_SHIFT = 35;
+    private static final int BUCKETS = LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos A duration in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos){
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long previous;
+        while(value > (previous = max.get()) && !max.compareAndSet(previous, value)){
+            //lost a race with a larger value, try again
+        }
+    }
+
+    public long getCount(){
+        return count.get();
+    }
+
+    public long getMaxNanos(){
+        return max.get();
+    }
+
+    public double getMeanNanos(){
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile Between 0 and 100, 99.9 for the 99.9th percentile
+     * @return The smallest recorded value at or above that percentile, 0 when nothing was recorded
+     */
+    public long getPercentileNanos(double percentile){
+        if(percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long total = count.get();
+        if(total == 0){
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts.get(i);
+            if(seen >= target){
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets everything recorded, not atomic with respect to concurrent recording
+     */
+    public void reset(){
+        for(int i = 0; i < BUCKETS; i++){
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString(){
+        return "count=" + getCount()
+                + " mean=" + micros((long) getMeanNanos())
+                + " p50=" + micros(getPercentileNanos(50))
+                + " p99=" + micros(getPercentileNanos(99))
+                + " p99.9=" + micros(getPercentileNanos(99.9))
+                + " max=" + micros(getMaxNanos());
+    }
+
+    private static String micros(long nanos){
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+
+
+    static int index(long value){
+        if(value < LINEAR_LIMIT){
+            return (int) value;
+        }
+        //shift so the value's top SUB_BUCKET_BITS + 1 bits remain, the leading one picks the half
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if(shift > MAX_SHIFT){
+            return BUCKETS - 1;
+        }
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(int index){
+        if(index < LINEAR_LIMIT){
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,228 @@
+package metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory listener keeping latency histograms per operation and table, plus a log of slow operations
+ * Operations at or over the slow threshold are logged as warnings through java.util.logging and kept in a bounded list
+ * <pre>
+ * MetricsListener metrics = new MetricsListener(200);
+ * objectDao.setOperationListener(metrics);
+ * ...
+ * System.out.println(metrics.report());
+ * </pre>
+ */
+public class MetricsListener implements OperationListener {
+
+    private static final Logger LOG = Logger.getLogger(MetricsListener.class.getName());
+
+    private final long slowThresholdNanos;
+    private final int slowLogSize;
+
+    private final ConcurrentMap<String, OperationStats> stats = new ConcurrentHashMap<>();
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LatencyHistogram mapping = new LatencyHistogram();
+    private final Deque<OperationEvent> slow = new ArrayDeque<>();
+
+    /**
+     * Creates a listener that logs operations taking 500ms or more
+     */
+    public MetricsListener(){
+        this(500);
+    }
+
+    /**
+     * @param slowThresholdMillis Operations taking at least this long are logged
+     */
+    public MetricsListener(long slowThresholdMillis){
+        this(slowThresholdMillis, 100);
+    }
+
+    /**
+     * @param slowThresholdMillis Operations taking at least this long are logged
+     * @param slowLogSize How many of the most recent slow operations getSlowOperations keeps
+     */
+    public MetricsListener(long slowThresholdMillis, int slowLogSize){
+        if(slowThresholdMillis < 0 || slowLogSize < 0){
+            throw new IllegalArgumentException("slowThresholdMillis and slowLogSize must not be negative");
+        }
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.slowLogSize = slowLogSize;
+    }
+
+    @Override
+    public void onOperation(OperationEvent event){
+
+        stats.computeIfAbsent(event.getOperation() + " " + event.getTable(),
+                key -> new OperationStats(event.getOperation(), event.getTable())).record(event);
+
+        acquire.record(event.getAcquireNanos());
+        execute.record(event.getExecuteNanos());
+        mapping.record(event.getMappingNanos());
+
+        if(event.getTotalNanos() >= slowThresholdNanos){
+            if(LOG.isLoggable(Level.WARNING)){
+                LOG.warning("Slow operation: " + event);
+            }
+            synchronized(slow){
+                slow.addLast(event);
+                while(slow.size() > slowLogSize){
+                    slow.removeFirst();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param operation The operation
+     * @param table The table name, the entity's simple class name
+     * @return Statistics for that operation on that table, or null if it has not happened
+     */
+    public OperationStats getStats(Operation operation, String table){
+        return stats.get(operation + " " + table);
+    }
+
+    /**
+     * @return Statistics for every operation and table seen, sorted by operation then table
+     */
+    public Map<String, OperationStats> getStats(){
+        return Collections.unmodifiableMap(new TreeMap<>(stats));
+    }
+
+    /**
+     * @return Time spent waiting for a connection, across all operations
+     */
+    public LatencyHistogram getAcquireHistogram(){
+        return acquire;
+    }
+
+    /**
+     * @return Time spent running statements, across all operations
+     */
+    public LatencyHistogram getExecuteHistogram(){
+        return execute;
+    }
+
+    /**
+     * @return Time spent mapping rows to objects, across all operations
+     */
+    public LatencyHistogram getMappingHistogram(){
+        return mapping;
+    }
+
+    /**
+     * @return The most recent slow operations, oldest first
+     */
+    public List<OperationEvent> getSlowOperations(){
+        synchronized(slow){
+            return new ArrayList<>(slow);
+        }
+    }
+
+    public long getSlowThresholdMillis(){
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    /**
+     * Forgets everything recorded
+     */
+    public void reset(){
+        stats.clear();
+        acquire.reset();
+        execute.reset();
+        mapping.reset();
+        synchronized(slow){
+            slow.clear();
+        }
+    }
+
+    /**
+     * @return One line per operation and table followed by the phase histograms
+     */
+    public String report(){
+        StringBuilder report = new StringBuilder();
+        for(OperationStats operation:getStats().values()){
+            report.append(operation).append("\n");
+        }
+        report.append("acquire ").append(acquire).append("\n");
+        report.append("execute ").append(execute).append("\n");
+        report.append("mapping ").append(mapping).append("\n");
+        return report.toString();
+    }
+
+    @Override
+    public String toString(){
+        return report();
+    }
+
+
+    /**
+     * Latency and volume of one operation on one table
+     */
+    public static final class OperationStats {
+
+        private final Operation operation;
+        private final String table;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        OperationStats(Operation operation, String table){
+            this.operation = operation;
+            this.table = table;
+        }
+
+        void record(OperationEvent event){
+            latency.record(event.getTotalNanos());
+            rows.add(event.getRows());
+            if(event.isFailed()){
+                failures.increment();
+            }
+        }
+
+        public Operation getOperation(){
+            return operation;
+        }
+
+        public String getTable(){
+            return table;
+        }
+
+        /**
+         * @return Total time of each operation, failures included
+         */
+        public LatencyHistogram getLatency(){
+            return latency;
+        }
+
+        public long getCount(){
+            return latency.getCount();
+        }
+
+        public long getRows(){
+            return rows.sum();
+        }
+
+        public long getFailures(){
+            return failures.sum();
+        }
+
+        @Override
+        public String toString(){
+            return operation + " " + table + " rows=" + getRows() + " failures=" + getFailures() + " " + latency;
+        }
+    }
+}
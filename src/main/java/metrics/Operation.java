@@ -0,0 +1,27 @@
+package metrics;
+
+/**
+ * The kinds of database work ObjectDao reports to an OperationListener
+ */
+public enum Operation {
+    CREATE_TABLE,
+    CREATE_INDEX,
+    DROP_TABLE,
+    INSERT,
+    BATCH_INSERT,
+    COPY,
+    UPSERT,
+    READ,
+    READ_MANY,
+    READ_ALL,
+    READ_PAGE,
+    QUERY,
+    COUNT,
+    EXISTS,
+    AGGREGATE,
+    STREAM,
+    UPDATE,
+    DELETE,
+    DELETE_MANY,
+    DELETE_ALL
+}
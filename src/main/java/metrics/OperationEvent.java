@@ -0,0 +1,100 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and outcome of one ObjectDao operation
+ * Acquire, execute and mapping times are the parts of the total spent borrowing a connection,
+ * running statements and turning rows into objects, whatever is left is the DAO's own overhead
+ */
+public final class OperationEvent {
+
+    private final Operation operation;
+    private final Class<?> entityClass;
+    private final String table;
+    private final String sql;
+    private final long rows;
+    private final long acquireNanos;
+    private final long executeNanos;
+    private final long mappingNanos;
+    private final long totalNanos;
+    private final Throwable failure;
+
+    public OperationEvent(Operation operation, Class<?> entityClass, String table, String sql, long rows,
+                          long acquireNanos, long executeNanos, long mappingNanos, long totalNanos, Throwable failure){
+        this.operation = operation;
+        this.entityClass = entityClass;
+        this.table = table;
+        this.sql = sql;
+        this.rows = rows;
+        this.acquireNanos = acquireNanos;
+        this.executeNanos = executeNanos;
+        this.mappingNanos = mappingNanos;
+        this.totalNanos = totalNanos;
+        this.failure = failure;
+    }
+
+    public Operation getOperation(){
+        return operation;
+    }
+
+    public Class<?> getEntityClass(){
+        return entityClass;
+    }
+
+    public String getTable(){
+        return table;
+    }
+
+    /**
+     * @return The sql template with ? placeholders, values are never included
+     */
+    public String getSql(){
+        return sql;
+    }
+
+    /**
+     * @return Rows read or written, as reported by the driver
+     */
+    public long getRows(){
+        return rows;
+    }
+
+    public long getAcquireNanos(){
+        return acquireNanos;
+    }
+
+    public long getExecuteNanos(){
+        return executeNanos;
+    }
+
+    public long getMappingNanos(){
+        return mappingNanos;
+    }
+
+    public long getTotalNanos(){
+        return totalNanos;
+    }
+
+    /**
+     * @return What the operation threw, or null if it succeeded
+     */
+    public Throwable getFailure(){
+        return failure;
+    }
+
+    public boolean isFailed(){
+        return failure != null;
+    }
+
+    @Override
+    public String toString(){
+        return operation + " " + table + " rows=" + rows
+                + " total=" + TimeUnit.NANOSECONDS.toMicros(totalNanos) + "us"
+                + " acquire=" + TimeUnit.NANOSECONDS.toMicros(acquireNanos) + "us"
+                + " execute=" + TimeUnit.NANOSECONDS.toMicros(executeNanos) + "us"
+                + " mapping=" + TimeUnit.NANOSECONDS.toMicros(mappingNanos) + "us"
+                + (failure == null ? "" : " failed=" + failure)
+                + " sql=" + sql;
+    }
+}
@@ -0,0 +1,14 @@
+package metrics;
+
+/**
+ * Receives one event per ObjectDao operation that reached the database
+ * Called on the thread that ran the operation, after its connection is released, so implementations should be quick and thread safe
+ * An exception thrown by a listener is ignored rather than failing the operation
+ */
+public interface OperationListener {
+
+    /**
+     * @param event The finished operation
+     */
+    void onOperation(OperationEvent event);
+}
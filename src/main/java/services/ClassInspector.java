@@ -1,6 +1,8 @@
 package services;
 
 import annotations.Column;
+import annotations.ManyToOne;
+import annotations.OneToMany;
 import annotations.PrimaryKey;
 
 import java.lang.reflect.Field;
@@ -9,25 +11,51 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 public class ClassInspector {
 
+    //metadata is built on first use and shared by every thread afterwards
+    private static final ConcurrentMap<Class<?>, EntityMetadata> metadataCache = new ConcurrentHashMap<>();
+
+
+    /**
+     * Returns the cached metadata for an entity class, scanning the class only on first use
+     * @param clazz The entity class
+     * @return The immutable metadata for clazz
+     */
+    public static EntityMetadata getMetadata(Class<?> clazz){
+
+        return metadataCache.computeIfAbsent(clazz, EntityMetadata::new);
+    }
+
+
     public static List<Field> getColumns(Class<?> clazz){
 
         List<Field> filteredField = new ArrayList<>();
         //gets the declared fields of a class, now we need to filter by annotation
         Field[] fields = clazz.getDeclaredFields();
 
-        //returns a filtered list of fields that are marked as columns
+        //returns a filtered list of fields that are marked as columns, a many-to-one reference is a column too
         filteredField = Arrays.stream(fields)
-                .filter(field -> field.isAnnotationPresent(Column.class))
+                .filter(field -> field.isAnnotationPresent(Column.class) || field.isAnnotationPresent(ManyToOne.class))
                 .collect(Collectors.toList());
 
         //return our filtered list
         return filteredField;
     }
 
+
+    public static List<Field> getCollections(Class<?> clazz){
+
+        //one-to-many lists are never columns, they are filled by fetching
+        return Arrays.stream(clazz.getDeclaredFields())
+                .filter(field -> field.isAnnotationPresent(OneToMany.class))
+                .collect(Collectors.toList());
+    }
+
     public static String getTable(Class<?> clazz){
 
         return clazz.getSimpleName();
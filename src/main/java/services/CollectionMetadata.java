@@ -0,0 +1,81 @@
+package services;
+
+import annotations.OneToMany;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+
+/**
+ * Immutable description of a @OneToMany list field, resolved once per entity class
+ */
+public final class CollectionMetadata {
+
+    private final Field field;
+    private final String name;
+    private final Class<?> elementClass;
+    private final String mappedBy;
+    private final PropertyAccessor accessor;
+
+    CollectionMetadata(Field field, Method getter, Method setter){
+        this.field = field;
+        this.name = field.getName();
+        this.mappedBy = field.getAnnotation(OneToMany.class).mappedBy();
+
+        //fetching assigns an ArrayList, so the field must be able to hold one
+        if(!field.getType().isAssignableFrom(ArrayList.class)){
+            throw new IllegalArgumentException(name + " must be declared as a List or Collection to be @OneToMany");
+        }
+        Type generic = field.getGenericType();
+        if(!(generic instanceof ParameterizedType) || !(((ParameterizedType) generic).getActualTypeArguments()[0] instanceof Class)){
+            throw new IllegalArgumentException(name + " must declare its element type, for example List<Order>");
+        }
+        this.elementClass = (Class<?>) ((ParameterizedType) generic).getActualTypeArguments()[0];
+        this.accessor = PropertyAccessor.of(field, getter, setter);
+    }
+
+    public Field getField(){
+        return field;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return The entity class held in the list
+     */
+    public Class<?> getElementClass(){
+        return elementClass;
+    }
+
+    /**
+     * @return The name of the @ManyToOne field on the element class pointing back at the owner
+     */
+    public String getMappedBy(){
+        return mappedBy;
+    }
+
+    /**
+     * @param owner The class declaring this list
+     * @return The mappedBy column on the element class, checked to be a reference to owner
+     * @throws IllegalArgumentException If mappedBy does not name a @ManyToOne field referring to owner
+     */
+    public ColumnMetadata getMappedByColumn(Class<?> owner){
+        //looked up on use, resolving it while the owner is inspected could recurse into the owner
+        ColumnMetadata column = ClassInspector.getMetadata(elementClass).getColumn(mappedBy);
+        if(column == null || !column.isReference() || column.getReferencedClass() != owner){
+            throw new IllegalArgumentException(elementClass.getSimpleName() + "." + mappedBy + " is not a @ManyToOne field referring to " + owner.getSimpleName());
+        }
+        return column;
+    }
+
+    /**
+     * @return The accessor used to read and write the list on an entity
+     */
+    public PropertyAccessor getAccessor(){
+        return accessor;
+    }
+}
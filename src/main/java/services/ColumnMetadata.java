@@ -0,0 +1,164 @@
+package services;
+
+import annotations.ManyToOne;
+import annotations.NotNull;
+import annotations.PrimaryKey;
+import annotations.Unique;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Immutable description of a single persisted field, resolved once per entity class
+ */
+public final class ColumnMetadata {
+
+    private final Field field;
+    private final String name;
+    private final Class<?> type;
+    private final String sqlType;
+    private final boolean primaryKey;
+    private final boolean unique;
+    private final boolean notNull;
+    private final PropertyAccessor accessor;
+    private final Class<?> referencedClass;
+
+    ColumnMetadata(Field field, Method getter, Method setter){
+        this.field = field;
+        this.name = field.getName();
+        this.primaryKey = field.isAnnotationPresent(PrimaryKey.class);
+        this.unique = field.isAnnotationPresent(Unique.class);
+        this.notNull = field.isAnnotationPresent(NotNull.class);
+
+        if(field.isAnnotationPresent(ManyToOne.class)){
+            //the column holds the referenced entity's key, so it takes the key's type
+            Field referencedKey = ClassInspector.getPrimaryKey(field.getType());
+            if(referencedKey == null){
+                throw new IllegalArgumentException(field.getName() + " refers to " + field.getType().getSimpleName() + ", which has no primary key");
+            }
+            this.referencedClass = field.getType();
+            this.type = referencedKey.getType();
+            this.accessor = new ReferenceAccessor(PropertyAccessor.of(field, getter, setter), referencedClass, type);
+        }else{
+            this.referencedClass = null;
+            this.type = field.getType();
+            this.accessor = PropertyAccessor.of(field, getter, setter);
+        }
+        this.sqlType = toSqlType(type);
+    }
+
+    //type mapping from Java to postgresql
+    private static String toSqlType(Class<?> value){
+        if(value.equals(String.class)){
+            return "text";
+        }else if(value.equals(int.class)){
+            return "integer";
+        }else if(value.equals(double.class)){
+            return "double precision";
+        }else if(value.equals(float.class)){
+            return "real";
+        }else if(value.equals(boolean.class)){
+            return "boolean";
+        }else if(value.equals(short.class)){
+            return "smallint";
+        }else if(value.equals(long.class)){
+            return "bigint";
+        }else if(value.equals(char.class)){
+            return "char";
+        }
+        return "";
+    }
+
+    public Field getField(){
+        return field;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public Class<?> getType(){
+        return type;
+    }
+
+    /**
+     * @return The postgresql type used for this column in generated DDL, empty if the type is unmapped
+     */
+    public String getSqlType(){
+        return sqlType;
+    }
+
+    public boolean isPrimaryKey(){
+        return primaryKey;
+    }
+
+    public boolean isUnique(){
+        return unique;
+    }
+
+    public boolean isNotNull(){
+        return notNull;
+    }
+
+    /**
+     * @return The accessor used to read and write this column on an entity, for a reference it reads and writes the key
+     */
+    public PropertyAccessor getAccessor(){
+        return accessor;
+    }
+
+    /**
+     * @return True for a @ManyToOne field, stored as a foreign key
+     */
+    public boolean isReference(){
+        return referencedClass != null;
+    }
+
+    /**
+     * @return The entity class a @ManyToOne field refers to, or null for a plain column
+     */
+    public Class<?> getReferencedClass(){
+        return referencedClass;
+    }
+
+    /**
+     * Reads the referenced entity itself rather than its key
+     * @param entity The entity holding the reference
+     * @return The referenced entity, which only carries its key until the relation is fetched
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public Object getReference(Object entity) throws IllegalAccessException, InvocationTargetException {
+        return reference().getReference(entity);
+    }
+
+    /**
+     * Writes the referenced entity itself
+     * @param entity The entity holding the reference
+     * @param referenced The referenced entity, or null
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public void setReference(Object entity, Object referenced) throws IllegalAccessException, InvocationTargetException {
+        reference().setReference(entity, referenced);
+    }
+
+    /**
+     * @param referenced An entity of the referenced class
+     * @return Its primary key as stored in this column
+     * @throws IllegalArgumentException If the entity has not been created yet
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public Object keyOf(Object referenced) throws IllegalAccessException, InvocationTargetException {
+        return reference().keyOf(referenced);
+    }
+
+    private ReferenceAccessor reference(){
+        if(referencedClass == null){
+            throw new IllegalStateException(name + " is not a reference");
+        }
+        return (ReferenceAccessor) accessor;
+    }
+}
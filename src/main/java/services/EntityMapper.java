@@ -0,0 +1,68 @@
+package services;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reflection-free binding and hydration for one entity class, implemented by the Entity_Mapper classes
+ * the processor module generates next to each entity at compile time
+ * EntityMetadata picks a generated mapper up by name and only uses it while its sql still matches SqlTemplates,
+ * so a mapper left over from an older version of the entity is ignored rather than trusted
+ * @param <T> The entity type
+ */
+public interface EntityMapper<T> {
+
+    Class<T> getEntityClass();
+
+    /**
+     * @return The create table statement generated at compile time, equal to SqlTemplates.createTable
+     */
+    String createTable();
+
+    /**
+     * @return The insert generated at compile time, equal to SqlTemplates.insert
+     */
+    String insert();
+
+    /**
+     * @return The select of every row generated at compile time, equal to SqlTemplates.selectAll
+     */
+    String selectAll();
+
+    /**
+     * @return The select by primary key generated at compile time, equal to SqlTemplates.selectById, null without a key
+     */
+    String selectById();
+
+    /**
+     * @return The delete by primary key generated at compile time, equal to SqlTemplates.deleteById, null without a key
+     */
+    String deleteById();
+
+    /**
+     * @return A new entity made with its no-argument constructor
+     */
+    T newInstance();
+
+    /**
+     * Binds every column except the primary key in declaration order, as InsertBatch.bindColumns does
+     * @param stmt The statement
+     * @param entity The entity to read
+     * @param first The parameter index of the first column
+     * @return The next free parameter index
+     * @throws SQLException If the driver rejects a value
+     */
+    int bindColumns(PreparedStatement stmt, T entity, int first) throws SQLException;
+
+    /**
+     * Copies the current row onto an entity from columns laid out as selectAll lays them out
+     * SQL NULL in a primitive column leaves the field at its Java default
+     * @param entity The entity to fill
+     * @param rs The result set, positioned on a row
+     * @param first The index of the first column
+     * @param withKey True if the primary key comes first, false if the row starts at the first column after it
+     * @throws SQLException If a column cannot be read
+     */
+    void mapInto(T entity, ResultSet rs, int first, boolean withKey) throws SQLException;
+}
@@ -0,0 +1,223 @@
+package services;
+
+import annotations.Indexed;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable, built-once view of an annotated entity class
+ * Obtain instances through ClassInspector.getMetadata so each class is only scanned once
+ */
+public final class EntityMetadata {
+
+    private final Class<?> entityClass;
+    private final String tableName;
+    private final ColumnMetadata primaryKey;
+    private final List<ColumnMetadata> columns;
+    private final Map<String, ColumnMetadata> columnsByName;
+    private final List<CollectionMetadata> collections;
+    private final List<IndexMetadata> indexes;
+    private final SqlTemplates sql;
+    private final EntityMapper<?> mapper;
+
+    EntityMetadata(Class<?> clazz){
+
+        this.entityClass = clazz;
+        this.tableName = ClassInspector.getTable(clazz);
+
+        //index accessor methods by lowercased name once so every field resolves with a single lookup
+        Map<String, Method> getters = new HashMap<>();
+        Map<String, Method> setters = new HashMap<>();
+        for(Method method:clazz.getDeclaredMethods()){
+            String methodName = method.getName().toLowerCase(Locale.ROOT);
+            if(method.getParameterCount() == 0 && method.getReturnType() != void.class){
+                getters.putIfAbsent(methodName, method);
+            }else if(method.getParameterCount() == 1){
+                setters.putIfAbsent(methodName, method);
+            }
+        }
+
+        //the primary key may also use the returnPKeyG/returnPKeyS naming convention
+        Field pKeyField = ClassInspector.getPrimaryKey(clazz);
+        if(pKeyField != null){
+            Method pKeyGetter = findGetter(getters, pKeyField);
+            Method pKeySetter = findSetter(setters, pKeyField);
+            this.primaryKey = new ColumnMetadata(pKeyField,
+                    pKeyGetter != null ? pKeyGetter : ClassInspector.returnKeyMethod(clazz),
+                    pKeySetter != null ? pKeySetter : ClassInspector.returnKeySetter(clazz));
+        }else{
+            this.primaryKey = null;
+        }
+
+        //columns are kept in declaration order, which is the order every generated statement uses
+        List<ColumnMetadata> columnList = new ArrayList<>();
+        Map<String, ColumnMetadata> byName = new HashMap<>();
+        for(Field field:ClassInspector.getColumns(clazz)){
+            ColumnMetadata column = new ColumnMetadata(field, findGetter(getters, field), findSetter(setters, field));
+            columnList.add(column);
+            byName.put(column.getName().toLowerCase(Locale.ROOT), column);
+        }
+        if(primaryKey != null){
+            byName.putIfAbsent(primaryKey.getName().toLowerCase(Locale.ROOT), primaryKey);
+        }
+
+        this.columns = Collections.unmodifiableList(columnList);
+        this.columnsByName = Collections.unmodifiableMap(byName);
+
+        List<CollectionMetadata> collectionList = new ArrayList<>();
+        for(Field field:ClassInspector.getCollections(clazz)){
+            collectionList.add(new CollectionMetadata(field, findGetter(getters, field), findSetter(setters, field)));
+        }
+        this.collections = Collections.unmodifiableList(collectionList);
+
+        //field indexes first in declaration order, then the class's own
+        List<IndexMetadata> indexList = new ArrayList<>();
+        List<ColumnMetadata> indexable = new ArrayList<>(columnList);
+        if(primaryKey != null){
+            indexable.add(0, primaryKey);
+        }
+        for(ColumnMetadata column:indexable){
+            for(Indexed indexed:column.getField().getAnnotationsByType(Indexed.class)){
+                indexList.add(new IndexMetadata(this, indexed, column));
+            }
+        }
+        for(Indexed indexed:clazz.getAnnotationsByType(Indexed.class)){
+            indexList.add(new IndexMetadata(this, indexed, null));
+        }
+        this.indexes = Collections.unmodifiableList(indexList);
+        this.sql = new SqlTemplates(this);
+        this.mapper = findMapper();
+    }
+
+    //a mapper generated at compile time sits next to the entity, its sql tells whether it still fits the class
+    private EntityMapper<?> findMapper(){
+
+        if(entityClass.getEnclosingClass() != null){
+            return null;
+        }
+        for(ColumnMetadata column:columns){
+            if(column.isReference()){
+                return null;
+            }
+        }
+
+        Class<?> mapperClass;
+        try{
+            mapperClass = Class.forName(entityClass.getName() + "_Mapper", true, entityClass.getClassLoader());
+        }catch(ClassNotFoundException | LinkageError e){
+            return null;
+        }
+        if(!EntityMapper.class.isAssignableFrom(mapperClass)){
+            return null;
+        }
+
+        EntityMapper<?> generated;
+        try{
+            generated = (EntityMapper<?>) mapperClass.getConstructor().newInstance();
+        }catch(ReflectiveOperationException e){
+            return null;
+        }
+        boolean current = generated.getEntityClass() == entityClass
+                && sql.createTable().equals(generated.createTable())
+                && sql.insert().equals(generated.insert())
+                && sql.selectAll().equals(generated.selectAll())
+                && Objects.equals(sql.selectById(), generated.selectById())
+                && Objects.equals(sql.deleteById(), generated.deleteById());
+        return current ? generated : null;
+    }
+
+    //exact get/is + name match, so a field named id can no longer bind to getPaid
+    private static Method findGetter(Map<String, Method> getters, Field field){
+        String fieldName = field.getName().toLowerCase(Locale.ROOT);
+        Method getter = getters.get("get" + fieldName);
+        if(getter == null && (field.getType() == boolean.class || field.getType() == Boolean.class)){
+            getter = getters.get("is" + fieldName);
+        }
+        return getter != null && field.getType().isAssignableFrom(getter.getReturnType()) ? getter : null;
+    }
+
+    private static Method findSetter(Map<String, Method> setters, Field field){
+        Method setter = setters.get("set" + field.getName().toLowerCase(Locale.ROOT));
+        return setter != null && setter.getParameterTypes()[0].isAssignableFrom(field.getType()) ? setter : null;
+    }
+
+    public Class<?> getEntityClass(){
+        return entityClass;
+    }
+
+    public String getTableName(){
+        return tableName;
+    }
+
+    /**
+     * @return The primary key column, or null if the class declares none
+     */
+    public ColumnMetadata getPrimaryKey(){
+        return primaryKey;
+    }
+
+    /**
+     * @return All @Column fields in declaration order, excluding the primary key
+     */
+    public List<ColumnMetadata> getColumns(){
+        return columns;
+    }
+
+    /**
+     * @return The mapper generated for this class at compile time, or null to bind and map through the accessors
+     */
+    public EntityMapper<?> getMapper(){
+        return mapper;
+    }
+
+    /**
+     * @return The parameterized statements for this entity
+     */
+    public SqlTemplates getSql(){
+        return sql;
+    }
+
+    /**
+     * @return All @OneToMany fields in declaration order
+     */
+    public List<CollectionMetadata> getCollections(){
+        return collections;
+    }
+
+    /**
+     * @return All @Indexed indexes, those declared on fields first
+     */
+    public List<IndexMetadata> getIndexes(){
+        return indexes;
+    }
+
+    /**
+     * @param name The field name of a @OneToMany list, ignoring case
+     * @return The collection, or null if the entity has no such list
+     */
+    public CollectionMetadata getCollection(String name){
+        for(CollectionMetadata collection:collections){
+            if(collection.getName().equalsIgnoreCase(name)){
+                return collection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a column (or the primary key) by name, ignoring case
+     * @param name The field name of the column
+     * @return The column, or null if the entity has no such column
+     */
+    public ColumnMetadata getColumn(String name){
+        return columnsByName.get(name.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,88 @@
+package services;
+
+import annotations.Indexed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of one @Indexed index, resolved once per entity class
+ */
+public final class IndexMetadata {
+
+    private final String name;
+    private final List<ColumnMetadata> columns;
+    private final boolean unique;
+    private final String where;
+
+    IndexMetadata(EntityMetadata metadata, Indexed indexed, ColumnMetadata column){
+
+        List<ColumnMetadata> columnList = new ArrayList<>();
+        if(column != null){
+            if(indexed.columns().length > 0){
+                throw new IllegalArgumentException("@Indexed on " + column.getName() + " indexes that field, list columns only on the class");
+            }
+            columnList.add(column);
+        }else{
+            if(indexed.columns().length == 0){
+                throw new IllegalArgumentException("@Indexed on " + metadata.getEntityClass().getSimpleName() + " must list its columns");
+            }
+            for(String name:indexed.columns()){
+                ColumnMetadata listed = metadata.getColumn(name);
+                if(listed == null){
+                    throw new IllegalArgumentException(metadata.getEntityClass().getSimpleName() + " has no column " + name + " to index");
+                }
+                columnList.add(listed);
+            }
+        }
+        this.columns = Collections.unmodifiableList(columnList);
+        this.unique = indexed.unique();
+        this.where = indexed.where().trim();
+
+        //named after the table and its columns unless told otherwise, postgresql index names are per schema
+        if(indexed.name().isEmpty()){
+            StringBuilder name = new StringBuilder(metadata.getTableName());
+            for(ColumnMetadata indexedColumn:columnList){
+                name.append("_").append(indexedColumn.getName());
+            }
+            this.name = name.append("_idx").toString();
+        }else{
+            this.name = indexed.name();
+        }
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return The indexed columns in index order
+     */
+    public List<ColumnMetadata> getColumns(){
+        return columns;
+    }
+
+    public boolean isUnique(){
+        return unique;
+    }
+
+    /**
+     * @return The condition limiting the index, or an empty string
+     */
+    public String getWhere(){
+        return where;
+    }
+
+    /**
+     * @return True if only rows matching getWhere are indexed
+     */
+    public boolean isPartial(){
+        return !where.isEmpty();
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
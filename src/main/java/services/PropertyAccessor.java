@@ -0,0 +1,387 @@
+package services;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads and writes one persisted property of an entity through a handle resolved once per class
+ * Uses the property's getter/setter when present and direct field access otherwise,
+ * falling back to plain reflection if a method handle cannot be created
+ */
+public abstract class PropertyAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<?> type;
+
+    PropertyAccessor(Class<?> type){
+        this.type = type;
+    }
+
+    /**
+     * Creates an accessor for a field
+     * @param field The persisted field
+     * @param getter The getter bound to the field, or null to read the field directly
+     * @param setter The setter bound to the field, or null to write the field directly
+     * @return An accessor for the field
+     */
+    static PropertyAccessor of(Field field, Method getter, Method setter){
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try{
+            MethodHandle get;
+            MethodHandle set;
+
+            if(getter != null){
+                getter.setAccessible(true);
+                get = lookup.unreflect(getter);
+            }else{
+                field.setAccessible(true);
+                get = lookup.unreflectGetter(field);
+            }
+
+            if(setter != null){
+                setter.setAccessible(true);
+                set = lookup.unreflect(setter);
+            }else{
+                field.setAccessible(true);
+                set = lookup.unreflectSetter(field);
+            }
+
+            //primitives also get a handle typed to the primitive, so typed writes skip boxing
+            MethodHandle setPrimitive = field.getType().isPrimitive()
+                    ? set.asType(MethodType.methodType(void.class, Object.class, field.getType()))
+                    : null;
+
+            return new HandleAccessor(field.getType(), get.asType(GETTER_TYPE), set.asType(SETTER_TYPE), setPrimitive);
+        }catch(IllegalAccessException | RuntimeException e){
+            //final fields, security managers and module rules all land here
+            return new ReflectionAccessor(field, getter, setter);
+        }
+    }
+
+    /**
+     * @return The declared type of the property
+     */
+    public Class<?> getType(){
+        return type;
+    }
+
+    /**
+     * Reads the property from an entity
+     * @param target The entity
+     * @return The property value, boxed for primitives
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException If the accessor itself throws
+     */
+    public abstract Object get(Object target) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * Writes the property on an entity, converting JDBC values to the property type where needed
+     * @param target The entity
+     * @param value The value, typically straight from a ResultSet
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException If the accessor itself throws
+     */
+    public void set(Object target, Object value) throws IllegalAccessException, InvocationTargetException {
+        write(target, coerce(value));
+    }
+
+    abstract void write(Object target, Object value) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * Writes an int property without boxing, only valid when the property type is int
+     * @param target The entity
+     * @param value The value
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException If the accessor itself throws
+     */
+    public void setInt(Object target, int value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Writes a long property without boxing, only valid when the property type is long
+     * @see #setInt(Object, int)
+     */
+    public void setLong(Object target, long value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Writes a double property without boxing, only valid when the property type is double
+     * @see #setInt(Object, int)
+     */
+    public void setDouble(Object target, double value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Writes a float property without boxing, only valid when the property type is float
+     * @see #setInt(Object, int)
+     */
+    public void setFloat(Object target, float value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Writes a short property without boxing, only valid when the property type is short
+     * @see #setInt(Object, int)
+     */
+    public void setShort(Object target, short value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Writes a boolean property without boxing, only valid when the property type is boolean
+     * @see #setInt(Object, int)
+     */
+    public void setBoolean(Object target, boolean value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Writes a char property without boxing, only valid when the property type is char
+     * @see #setInt(Object, int)
+     */
+    public void setChar(Object target, char value) throws IllegalAccessException, InvocationTargetException {
+        write(target, value);
+    }
+
+    /**
+     * Converts a value to the property type the same way set does, drivers do not always hand back the exact wrapper the field expects
+     * @param value The value
+     * @return The value as the property type where a conversion exists, otherwise the value itself
+     */
+    public Object coerce(Object value){
+
+        if(value == null || type.isInstance(value)){
+            return value;
+        }
+
+        if(value instanceof Number){
+            Number number = (Number) value;
+            if(type == int.class || type == Integer.class){
+                return number.intValue();
+            }else if(type == long.class || type == Long.class){
+                return number.longValue();
+            }else if(type == double.class || type == Double.class){
+                return number.doubleValue();
+            }else if(type == float.class || type == Float.class){
+                return number.floatValue();
+            }else if(type == short.class || type == Short.class){
+                return number.shortValue();
+            }
+        }else if(value instanceof String && (type == char.class || type == Character.class)){
+            String string = (String) value;
+            return string.isEmpty() ? null : string.charAt(0);
+        }
+
+        return value;
+    }
+
+
+    private static final class HandleAccessor extends PropertyAccessor {
+
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final MethodHandle setPrimitive;
+
+        HandleAccessor(Class<?> type, MethodHandle getter, MethodHandle setter, MethodHandle setPrimitive){
+            super(type);
+            this.getter = getter;
+            this.setter = setter;
+            this.setPrimitive = setPrimitive;
+        }
+
+        @Override
+        public Object get(Object target) throws InvocationTargetException {
+            try{
+                return getter.invokeExact(target);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        void write(Object target, Object value) throws InvocationTargetException {
+            //primitives have no null, leave the default in place
+            if(value == null && getType().isPrimitive()){
+                return;
+            }
+            try{
+                setter.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        //each invokeExact below only links when setPrimitive was made for that exact primitive
+
+        @Override
+        public void setInt(Object target, int value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setLong(Object target, long value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setDouble(Object target, double value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setFloat(Object target, float value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setShort(Object target, short value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object target, boolean value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public void setChar(Object target, char value) throws InvocationTargetException {
+            try{
+                setPrimitive.invokeExact(target, value);
+            }catch(Throwable t){
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+
+    private static final class ReflectionAccessor extends PropertyAccessor {
+
+        private final Field field;
+        private final Method getter;
+        private final Method setter;
+
+        ReflectionAccessor(Field field, Method getter, Method setter){
+            super(field.getType());
+            this.field = field;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Object get(Object target) throws IllegalAccessException, InvocationTargetException {
+            return getter != null ? getter.invoke(target) : field.get(target);
+        }
+
+        @Override
+        void write(Object target, Object value) throws IllegalAccessException, InvocationTargetException {
+            if(value == null && getType().isPrimitive()){
+                return;
+            }
+            if(setter != null){
+                setter.invoke(target, value);
+            }else{
+                field.set(target, value);
+            }
+        }
+
+        //the typed Field setters avoid boxing when there is no setter method to call
+
+        @Override
+        public void setInt(Object target, int value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setInt(target, value);
+            }else{
+                field.setInt(target, value);
+            }
+        }
+
+        @Override
+        public void setLong(Object target, long value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setLong(target, value);
+            }else{
+                field.setLong(target, value);
+            }
+        }
+
+        @Override
+        public void setDouble(Object target, double value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setDouble(target, value);
+            }else{
+                field.setDouble(target, value);
+            }
+        }
+
+        @Override
+        public void setFloat(Object target, float value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setFloat(target, value);
+            }else{
+                field.setFloat(target, value);
+            }
+        }
+
+        @Override
+        public void setShort(Object target, short value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setShort(target, value);
+            }else{
+                field.setShort(target, value);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object target, boolean value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setBoolean(target, value);
+            }else{
+                field.setBoolean(target, value);
+            }
+        }
+
+        @Override
+        public void setChar(Object target, char value) throws IllegalAccessException, InvocationTargetException {
+            if(setter != null){
+                super.setChar(target, value);
+            }else{
+                field.setChar(target, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package services;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Accessor for a @ManyToOne field that reads and writes the referenced entity's primary key instead of the entity
+ * Everything that handles plain columns (binding, mapping, caching, dirty checking) therefore sees just a key,
+ * and mapping a key back produces a reference carrying only that key until the relation is fetched
+ */
+final class ReferenceAccessor extends PropertyAccessor {
+
+    private final PropertyAccessor field;
+    private final Class<?> referencedClass;
+
+    ReferenceAccessor(PropertyAccessor field, Class<?> referencedClass, Class<?> keyType){
+        super(keyType);
+        this.field = field;
+        this.referencedClass = referencedClass;
+    }
+
+    @Override
+    public Object get(Object target) throws IllegalAccessException, InvocationTargetException {
+        return keyOf(field.get(target));
+    }
+
+    //the key is set on a new instance of the referenced class, a placeholder until the relation is fetched
+    @Override
+    void write(Object target, Object value) throws IllegalAccessException, InvocationTargetException {
+        if(value == null){
+            field.write(target, null);
+            return;
+        }
+        Object reference;
+        try{
+            reference = referencedClass.newInstance();
+        }catch(InstantiationException e){
+            throw new InvocationTargetException(e, referencedClass.getSimpleName() + " needs a no-argument constructor");
+        }
+        referencedKey().set(reference, value);
+        field.write(target, reference);
+    }
+
+    Object getReference(Object target) throws IllegalAccessException, InvocationTargetException {
+        return field.get(target);
+    }
+
+    void setReference(Object target, Object reference) throws IllegalAccessException, InvocationTargetException {
+        field.write(target, reference);
+    }
+
+    Object keyOf(Object reference) throws IllegalAccessException, InvocationTargetException {
+        if(reference == null){
+            return null;
+        }
+        Object key = referencedKey().get(reference);
+        //an unsaved entity has no key yet, storing null instead would silently drop the link
+        if(key == null || key instanceof Number && ((Number) key).longValue() == 0){
+            throw new IllegalArgumentException("The referenced " + referencedClass.getSimpleName() + " has no primary key, create it first");
+        }
+        return key;
+    }
+
+    //resolved on use, the referenced class may still be being inspected when this accessor is built
+    private PropertyAccessor referencedKey(){
+        return ClassInspector.getMetadata(referencedClass).getPrimaryKey().getAccessor();
+    }
+}
@@ -0,0 +1,428 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parameterized sql for one entity class, generated once from its metadata
+ * Every value is a ? placeholder, bind them in column order followed by the primary key where present
+ */
+public final class SqlTemplates {
+
+    private final String createTable;
+    private final List<String> createIndexes;
+    private final List<String> createIndexesUnlimited;
+    private final String insert;
+    private final String selectById;
+    private final String existsById;
+    private final String countAll;
+    private final String selectAll;
+    private final String selectNone;
+    private final String deleteById;
+    private final String deleteAll;
+    private final String dropTable;
+    private final String copyText;
+    private final String copyBinary;
+    private final String selectPage;
+    private final String selectPageAfter;
+    private final String[] updateByColumnCount;
+
+    //partial updates are built on first use, keyed by which columns they set
+    private static final int MAX_CACHED_UPDATES = 256;
+    private final ConcurrentMap<BitSet, String> updateByColumns = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> selectByKeys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> deleteByKeys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> upserts = new ConcurrentHashMap<>();
+    private final String selectByKeyArray;
+    private final String deleteByKeyArray;
+    private final String table;
+    private final ColumnMetadata pKey;
+    private final List<ColumnMetadata> columns;
+
+    SqlTemplates(EntityMetadata metadata){
+
+        String table = "\"" + metadata.getTableName() + "\"";
+        ColumnMetadata pKey = metadata.getPrimaryKey();
+        List<ColumnMetadata> columns = metadata.getColumns();
+        this.table = table;
+        this.pKey = pKey;
+        this.columns = columns;
+
+        //comma separated column names in declaration order
+        StringBuilder names = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        String prefix = "";
+        for(ColumnMetadata column:columns){
+            names.append(prefix).append(column.getName());
+            placeholders.append(prefix).append("?");
+            prefix = ", ";
+        }
+
+        StringBuilder ddl = new StringBuilder();
+        ddl.append("create table if not exists ").append(table).append("(");
+        prefix = "";
+        if(pKey != null){
+            ddl.append("\n").append(pKey.getName()).append(" serial primary key");
+            prefix = ", ";
+        }
+        for(ColumnMetadata column:columns){
+            ddl.append(prefix).append("\n").append(column.getName()).append(" ").append(column.getSqlType());
+            prefix = ", ";
+
+            if(column.isUnique() && column.isNotNull()){
+                ddl.append(" unique not null");
+            }else if(column.isUnique()){
+                ddl.append(" unique");
+            }else if(column.isNotNull()){
+                ddl.append(" not null");
+            }
+
+            //a many-to-one reference is a foreign key to the referenced entity's primary key
+            if(column.isReference()){
+                ddl.append(" references \"").append(ClassInspector.getTable(column.getReferencedClass())).append("\"(")
+                        .append(ClassInspector.getPrimaryKey(column.getReferencedClass()).getName()).append(")");
+            }
+        }
+        ddl.append(")");
+        this.createTable = ddl.toString();
+
+        //one statement per index, and the same without its where clause for databases lacking partial indexes
+        List<String> indexDdl = new ArrayList<>();
+        List<String> unlimitedDdl = new ArrayList<>();
+        for(IndexMetadata index:metadata.getIndexes()){
+            StringBuilder create = new StringBuilder("create ");
+            if(index.isUnique()){
+                create.append("unique ");
+            }
+            create.append("index if not exists \"").append(index.getName()).append("\" on ").append(table).append("(");
+            prefix = "";
+            for(ColumnMetadata column:index.getColumns()){
+                create.append(prefix).append(column.getName());
+                prefix = ", ";
+            }
+            create.append(")");
+            unlimitedDdl.add(create.toString());
+            if(index.isPartial()){
+                create.append(" where ").append(index.getWhere());
+            }
+            indexDdl.add(create.toString());
+        }
+        this.createIndexes = Collections.unmodifiableList(indexDdl);
+        this.createIndexesUnlimited = Collections.unmodifiableList(unlimitedDdl);
+
+        this.insert = "insert into " + table + "(" + names + ") values(" + placeholders + ")";
+        this.selectAll = "select " + (pKey == null ? "" : pKey.getName() + (columns.isEmpty() ? "" : ", ")) + names + " from " + table;
+        this.selectNone = selectAll + " where 1 = 0";
+        this.countAll = "select count(*) from " + table;
+        this.deleteAll = "truncate table " + table;
+        this.dropTable = "drop table " + table;
+        this.copyText = "copy " + table + "(" + names + ") from stdin";
+        this.copyBinary = copyText + " with (format binary)";
+
+        if(pKey != null){
+            this.selectById = "select " + names + " from " + table + " where " + pKey.getName() + " = ?";
+            this.existsById = "select 1 from " + table + " where " + pKey.getName() + " = ?";
+            this.deleteById = "delete from " + table + " where " + pKey.getName() + " = ?";
+            this.selectPage = selectAll + " order by " + pKey.getName() + " limit ? offset ?";
+            this.selectPageAfter = selectAll + " where " + pKey.getName() + " > ? order by " + pKey.getName() + " limit ?";
+            this.selectByKeyArray = selectAll + " where " + pKey.getName() + " = any(?)";
+            this.deleteByKeyArray = "delete from " + table + " where " + pKey.getName() + " = any(?)";
+        }else{
+            this.selectById = null;
+            this.existsById = null;
+            this.deleteById = null;
+            this.selectPage = null;
+            this.selectPageAfter = null;
+            this.selectByKeyArray = null;
+            this.deleteByKeyArray = null;
+        }
+
+        //updates set the leading n columns, one statement per n
+        this.updateByColumnCount = new String[columns.size() + 1];
+        if(pKey != null){
+            StringBuilder set = new StringBuilder();
+            prefix = "";
+            for(int n = 1; n <= columns.size(); n++){
+                set.append(prefix).append(columns.get(n - 1).getName()).append(" = ?");
+                prefix = ", ";
+                updateByColumnCount[n] = "update " + table + " set " + set + " where " + pKey.getName() + " = ?";
+            }
+        }
+    }
+
+    /**
+     * @return create table if not exists, primary key first and then every column with its constraints and foreign keys
+     */
+    public String createTable(){
+        return createTable;
+    }
+
+    /**
+     * @return One create index if not exists statement per @Indexed index, in the order of EntityMetadata.getIndexes
+     */
+    public List<String> createIndexes(){
+        return createIndexes;
+    }
+
+    /**
+     * @return createIndexes with every where clause dropped, for databases without partial indexes
+     */
+    public List<String> createIndexesUnlimited(){
+        return createIndexesUnlimited;
+    }
+
+    /**
+     * @return insert of every column except the generated primary key
+     */
+    public String insert(){
+        return insert;
+    }
+
+    /**
+     * @return select of every column except the primary key, by primary key
+     */
+    public String selectById(){
+        return selectById;
+    }
+
+    /**
+     * @return select of a constant by primary key, a row comes back only if the key exists
+     */
+    public String existsById(){
+        return existsById;
+    }
+
+    /**
+     * @return select of the number of rows in the table
+     */
+    public String countAll(){
+        return countAll;
+    }
+
+    /**
+     * @return select of the primary key followed by every column
+     */
+    public String selectAll(){
+        return selectAll;
+    }
+
+    /**
+     * @return select of the primary key and every column matching no rows, fails if the table does not fit the entity
+     */
+    public String selectNone(){
+        return selectNone;
+    }
+
+    /**
+     * @return select of every column in primary key order, binds limit then offset
+     */
+    public String selectPage(){
+        return selectPage;
+    }
+
+    /**
+     * @return keyset select of every column after a primary key in key order, binds the last key then limit
+     */
+    public String selectPageAfter(){
+        return selectPageAfter;
+    }
+
+    /**
+     * @return select of the primary key and every column for the keys in one array parameter, PostgreSQL only
+     */
+    public String selectByKeyArray(){
+        return selectByKeyArray;
+    }
+
+    /**
+     * @param keyCount The number of key placeholders
+     * @return select of the primary key and every column where the key is in a list of keyCount values
+     */
+    public String selectByKeys(int keyCount){
+        return selectByKeys.computeIfAbsent(keyCount, n -> selectAll + " where " + pKey.getName() + " in (" + placeholders(n) + ")");
+    }
+
+    /**
+     * @return update of every column by primary key
+     */
+    public String update(){
+        return update(updateByColumnCount.length - 1);
+    }
+
+    /**
+     * @param columnCount How many leading columns the update sets
+     * @return update of the first columnCount columns by primary key
+     */
+    public String update(int columnCount){
+        if(columnCount < 1 || columnCount >= updateByColumnCount.length){
+            throw new IllegalArgumentException("Cannot update " + columnCount + " of " + (updateByColumnCount.length - 1) + " columns");
+        }
+        return updateByColumnCount[columnCount];
+    }
+
+    /**
+     * @param changed The indexes into EntityMetadata.getColumns of the columns to set, in any order
+     * @return update of just those columns by primary key, binds them in column order followed by the primary key
+     */
+    public String update(BitSet changed){
+
+        String sql = updateByColumns.get(changed);
+        if(sql != null){
+            return sql;
+        }
+        if(pKey == null || changed.isEmpty() || changed.length() > columns.size()){
+            throw new IllegalArgumentException("Cannot update columns " + changed + " of " + columns.size() + " columns");
+        }
+
+        StringBuilder update = new StringBuilder("update ").append(table).append(" set ");
+        String prefix = "";
+        for(int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)){
+            update.append(prefix).append(columns.get(i).getName()).append(" = ?");
+            prefix = ", ";
+        }
+        update.append(" where ").append(pKey.getName()).append(" = ?");
+        sql = update.toString();
+
+        if(updateByColumns.size() < MAX_CACHED_UPDATES){
+            updateByColumns.putIfAbsent((BitSet) changed.clone(), sql);
+        }
+        return sql;
+    }
+
+    /**
+     * PostgreSQL insert that updates the existing row instead when the target column conflicts
+     * Keyed on the primary key it binds the key followed by every column, keyed on a unique column it binds every column
+     * @param target The primary key or a @Unique column
+     * @return insert ... on conflict (target) do update of every other column
+     */
+    public String upsert(ColumnMetadata target){
+        return upserts.computeIfAbsent("upsert:" + target.getName(), k -> {
+            StringBuilder set = new StringBuilder();
+            String prefix = "";
+            for(ColumnMetadata column:columns){
+                if(column != target){
+                    set.append(prefix).append(column.getName()).append(" = excluded.").append(column.getName());
+                    prefix = ", ";
+                }
+            }
+            //something has to be set for the existing row to come back with its key
+            if(set.length() == 0){
+                set.append(target.getName()).append(" = excluded.").append(target.getName());
+            }
+            return insertInto(target) + " on conflict (" + target.getName() + ") do update set " + set;
+        });
+    }
+
+    /**
+     * H2 style merge with the same parameters as upsert
+     * @param target The primary key or a @Unique column
+     * @return merge into ... key(target) values(...)
+     */
+    public String merge(ColumnMetadata target){
+        return upserts.computeIfAbsent("merge:" + target.getName(), k -> {
+            String insert = insertInto(target);
+            int values = insert.indexOf(") values(");
+            return "merge into" + insert.substring("insert into".length(), values + 1)
+                    + " key(" + target.getName() + ")" + insert.substring(values + 1);
+        });
+    }
+
+    /**
+     * PostgreSQL query moving the primary key's serial sequence past the largest key in the table, never backwards
+     * @return select setval(...) of the key's sequence
+     */
+    public String advanceSerial(){
+        String sequence = "pg_get_serial_sequence('" + table.replace("'", "''") + "', '" + pKey.getName().toLowerCase(Locale.ROOT) + "')";
+        return "select setval(k.s, greatest(k.m, nextval(k.s))) from (select " + sequence + " s, (select max("
+                + pKey.getName() + ") from " + table + ") m) k";
+    }
+
+    /**
+     * H2 query for the value the primary key's identity has to restart with to pass the largest key, next to the value it would hand out now
+     * @return select max(key) + 1 and the identity's next value
+     */
+    public String identityRestart(){
+        return "select max(" + pKey.getName() + ") + 1, (select identity_base from information_schema.columns where table_name = '"
+                + table.substring(1, table.length() - 1).replace("'", "''") + "' and column_name = '" + pKey.getName().toUpperCase(Locale.ROOT)
+                + "') from " + table;
+    }
+
+    /**
+     * @param value The next key the identity hands out
+     * @return H2 alter restarting the primary key's identity
+     */
+    public String restartIdentity(long value){
+        return "alter table " + table + " alter column " + pKey.getName() + " restart with " + value;
+    }
+
+    //insert naming the primary key too when it is the conflict target
+    private String insertInto(ColumnMetadata target){
+        if(!target.isPrimaryKey()){
+            return insert;
+        }
+        StringBuilder names = new StringBuilder(target.getName());
+        StringBuilder placeholders = new StringBuilder("?");
+        for(ColumnMetadata column:columns){
+            names.append(", ").append(column.getName());
+            placeholders.append(", ?");
+        }
+        return "insert into " + table + "(" + names + ") values(" + placeholders + ")";
+    }
+
+    /**
+     * @return delete by primary key
+     */
+    public String deleteById(){
+        return deleteById;
+    }
+
+    /**
+     * @return delete of the keys in one array parameter, PostgreSQL only
+     */
+    public String deleteByKeyArray(){
+        return deleteByKeyArray;
+    }
+
+    /**
+     * @param keyCount The number of key placeholders
+     * @return delete where the key is in a list of keyCount values
+     */
+    public String deleteByKeys(int keyCount){
+        return deleteByKeys.computeIfAbsent(keyCount, n -> "delete from " + table + " where " + pKey.getName() + " in (" + placeholders(n) + ")");
+    }
+
+    private static String placeholders(int count){
+        if(count < 1){
+            throw new IllegalArgumentException("keyCount must be at least 1");
+        }
+        StringBuilder placeholders = new StringBuilder("?");
+        for(int i = 1; i < count; i++){
+            placeholders.append(", ?");
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * @return truncate of the whole table
+     */
+    public String deleteAll(){
+        return deleteAll;
+    }
+
+    public String dropTable(){
+        return dropTable;
+    }
+
+    /**
+     * @param binary True for the binary copy format, false for text
+     * @return copy from stdin of every column except the generated primary key
+     */
+    public String copyFrom(boolean binary){
+        return binary ? copyBinary : copyText;
+    }
+}
@@ -0,0 +1,534 @@
+package util;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, thread-safe JDBC connection pool
+ * Connections handed out are proxies, closing one returns the underlying connection to the pool
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    public static final String MAX_SIZE = "pool.maxSize";
+    public static final String MIN_IDLE = "pool.minIdle";
+    public static final String ACQUIRE_TIMEOUT = "pool.acquireTimeoutMillis";
+    public static final String IDLE_TIMEOUT = "pool.idleTimeoutMillis";
+    public static final String VALIDATION_TIMEOUT = "pool.validationTimeoutSeconds";
+    public static final String STATEMENT_CACHE_SIZE = "pool.statementCacheSize";
+
+    //a connection returned this recently is trusted without another round trip
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final String url;
+    private final Properties credentials;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    //most recently returned connections sit at the head so the warmest one is reused first
+    private final LinkedBlockingDeque<PooledEntry> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private volatile boolean closed;
+
+
+    /**
+     * Creates a pool with default sizing
+     * @param url The JDBC url
+     * @param username The database user
+     * @param password The database password
+     * @param maxSize The maximum number of open connections
+     */
+    public ConnectionPool(String url, String username, String password, int maxSize){
+        this(url, username, password, maxSize, 0, 30000, 600000, 5, 64);
+    }
+
+    /**
+     * Creates a pool from the url, username, password and pool.* keys of a property file
+     * @param properties The loaded application properties
+     */
+    public ConnectionPool(Properties properties){
+        this(properties.getProperty("url"),
+                properties.getProperty("username"),
+                properties.getProperty("password"),
+                Integer.parseInt(properties.getProperty(MAX_SIZE, "10")),
+                Integer.parseInt(properties.getProperty(MIN_IDLE, "0")),
+                Long.parseLong(properties.getProperty(ACQUIRE_TIMEOUT, "30000")),
+                Long.parseLong(properties.getProperty(IDLE_TIMEOUT, "600000")),
+                Integer.parseInt(properties.getProperty(VALIDATION_TIMEOUT, "5")),
+                Integer.parseInt(properties.getProperty(STATEMENT_CACHE_SIZE, "64")));
+    }
+
+    /**
+     * Creates a pool
+     * @param url The JDBC url
+     * @param username The database user, may be null for embedded databases
+     * @param password The database password, may be null for embedded databases
+     * @param maxSize The maximum number of open connections
+     * @param minIdle The number of idle connections eviction will never go below
+     * @param acquireTimeoutMillis How long getConnection waits for a free connection before failing
+     * @param idleTimeoutMillis How long a connection may sit idle before it is closed, 0 disables eviction
+     * @param validationTimeoutSeconds The timeout passed to Connection.isValid when validating on borrow
+     * @param statementCacheSize PreparedStatements cached per connection, 0 disables caching
+     */
+    public ConnectionPool(String url, String username, String password, int maxSize, int minIdle,
+                          long acquireTimeoutMillis, long idleTimeoutMillis, int validationTimeoutSeconds,
+                          int statementCacheSize){
+
+        if(maxSize < 1){
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+
+        this.url = url;
+        this.credentials = new Properties();
+        if(username != null){
+            credentials.setProperty("user", username);
+        }
+        if(password != null){
+            credentials.setProperty("password", password);
+        }
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        if(idleTimeoutMillis > 0){
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(idleTimeoutMillis / 2, 1000);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }else{
+            evictor = null;
+        }
+    }
+
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout if the pool is exhausted
+     * @return A pooled connection, close it to give it back
+     * @throws SQLException If the pool is closed, the wait times out, or a new connection cannot be opened
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+
+        if(closed){
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try{
+            if(!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)){
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + "ms waiting for a connection ("
+                        + active.get() + " active, " + permits.getQueueLength() + " waiting)");
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try{
+            PooledEntry entry = takeValidIdle();
+            if(entry == null){
+                entry = newEntry(DriverManager.getConnection(url, credentials));
+                total.incrementAndGet();
+            }
+            active.incrementAndGet();
+            return entry.lease(this);
+        }catch(SQLException | RuntimeException e){
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledEntry newEntry(Connection connection){
+        StatementCache cache = statementCacheSize > 0
+                ? new StatementCache(connection, statementCacheSize, statementCacheHits, statementCacheMisses)
+                : null;
+        return new PooledEntry(connection, cache);
+    }
+
+    //validates idle connections on borrow, discarding any that have gone bad
+    private PooledEntry takeValidIdle(){
+
+        PooledEntry entry;
+        while((entry = idle.pollFirst()) != null){
+            if(System.nanoTime() - entry.lastUsed < VALIDATION_BYPASS_NANOS || isValid(entry.connection)){
+                return entry;
+            }
+            discard(entry);
+        }
+        return null;
+    }
+
+    private boolean isValid(Connection connection){
+        try{
+            return connection.isValid(validationTimeoutSeconds);
+        }catch(SQLException e){
+            return false;
+        }
+    }
+
+    private void recordWait(long waitNanos){
+        acquireCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max;
+        while(waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)){
+            //retry until we either win or someone records a longer wait
+        }
+    }
+
+    //called by a proxy when the borrower closes it
+    private void release(PooledEntry entry, boolean broken){
+
+        active.decrementAndGet();
+
+        if(broken || closed || !reset(entry.connection)){
+            discard(entry);
+        }else{
+            entry.lastUsed = System.nanoTime();
+            idle.offerFirst(entry);
+        }
+        permits.release();
+
+        //close could have raced with this release
+        if(closed){
+            closeIdle();
+        }
+    }
+
+    //undoes anything a borrower may have changed so the next one gets a clean connection
+    private boolean reset(Connection connection){
+        try{
+            if(connection.isClosed()){
+                return false;
+            }
+            if(!connection.getAutoCommit()){
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if(connection.isReadOnly()){
+                connection.setReadOnly(false);
+            }
+            connection.clearWarnings();
+            return true;
+        }catch(SQLException e){
+            return false;
+        }
+    }
+
+    private void discard(PooledEntry entry){
+        total.decrementAndGet();
+        if(entry.statements != null){
+            entry.statements.clear();
+        }
+        try{
+            entry.connection.close();
+        }catch(SQLException ignored){
+            //the connection is being thrown away regardless
+        }
+    }
+
+    //closes connections idle longer than the idle timeout, keeping at least minIdle
+    private void evictIdle(){
+
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        Iterator<PooledEntry> iterator = idle.descendingIterator();
+
+        while(iterator.hasNext() && idle.size() > minIdle){
+            PooledEntry entry = iterator.next();
+            //remove fails if a borrower took the entry in the meantime
+            if(entry.lastUsed < cutoff && idle.remove(entry)){
+                evictedCount.incrementAndGet();
+                discard(entry);
+            }
+        }
+    }
+
+    private void closeIdle(){
+        PooledEntry entry;
+        while((entry = idle.pollFirst()) != null){
+            discard(entry);
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones
+     * Borrowed connections are closed as they are returned
+     */
+    @Override
+    public void close(){
+        closed = true;
+        if(evictor != null){
+            evictor.shutdownNow();
+        }
+        closeIdle();
+    }
+
+    public boolean isClosed(){
+        return closed;
+    }
+
+    public int getMaxSize(){
+        return maxSize;
+    }
+
+    /**
+     * @return Connections currently borrowed
+     */
+    public int getActiveConnections(){
+        return active.get();
+    }
+
+    /**
+     * @return Open connections waiting in the pool
+     */
+    public int getIdleConnections(){
+        return idle.size();
+    }
+
+    /**
+     * @return All open physical connections, borrowed or idle
+     */
+    public int getTotalConnections(){
+        return total.get();
+    }
+
+    /**
+     * @return Threads currently blocked waiting for a connection
+     */
+    public int getThreadsAwaiting(){
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return Successful borrows since the pool was created
+     */
+    public long getAcquireCount(){
+        return acquireCount.get();
+    }
+
+    /**
+     * @return Total time borrowers spent waiting for a connection, in nanoseconds
+     */
+    public long getTotalWaitNanos(){
+        return totalWaitNanos.get();
+    }
+
+    /**
+     * @return The longest single wait for a connection, in nanoseconds
+     */
+    public long getMaxWaitNanos(){
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * @return Borrows that failed because the acquire timeout elapsed
+     */
+    public long getTimeoutCount(){
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return Connections closed by idle eviction
+     */
+    public long getEvictedCount(){
+        return evictedCount.get();
+    }
+
+    /**
+     * @return prepareStatement calls served from a connection's statement cache
+     */
+    public long getStatementCacheHits(){
+        return statementCacheHits.get();
+    }
+
+    /**
+     * @return prepareStatement calls that had to prepare a new statement
+     */
+    public long getStatementCacheMisses(){
+        return statementCacheMisses.get();
+    }
+
+    @Override
+    public String toString(){
+        return "ConnectionPool{active=" + getActiveConnections()
+                + ", idle=" + getIdleConnections()
+                + ", waiting=" + getThreadsAwaiting()
+                + ", max=" + maxSize + "}";
+    }
+
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections all use the configured credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter(){
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out){
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds){
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout(){
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if(iface.isInstance(this)){
+            return iface.cast(this);
+        }
+        throw new SQLException("ConnectionPool does not wrap " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface){
+        return iface.isInstance(this);
+    }
+
+
+    /**
+     * A physical connection owned by the pool
+     */
+    private static final class PooledEntry {
+
+        private final Connection connection;
+        private final StatementCache statements;
+        private volatile long lastUsed = System.nanoTime();
+
+        PooledEntry(Connection connection, StatementCache statements){
+            this.connection = connection;
+            this.statements = statements;
+        }
+
+        Connection lease(ConnectionPool pool){
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new LeaseHandler(pool, this));
+        }
+    }
+
+
+    /**
+     * Routes calls to the physical connection until the borrower closes it
+     */
+    private static final class LeaseHandler implements InvocationHandler {
+
+        private final ConnectionPool pool;
+        private final PooledEntry entry;
+        private boolean released;
+        private boolean broken;
+
+        LeaseHandler(ConnectionPool pool, PooledEntry entry){
+            this.pool = pool;
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            switch(method.getName()){
+                case "close":
+                    if(!released){
+                        released = true;
+                        pool.release(entry, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + entry.connection;
+                default:
+                    break;
+            }
+
+            if(released){
+                throw new SQLException("Connection has been returned to the pool");
+            }
+
+            //only the plain and generated-keys overloads are worth caching
+            if(entry.statements != null && method.getName().equals("prepareStatement")){
+                Class<?>[] types = method.getParameterTypes();
+                if(types.length == 1){
+                    return entry.statements.prepare((String) args[0], -1);
+                }else if(types.length == 2 && types[1] == int.class){
+                    return entry.statements.prepare((String) args[0], (Integer) args[1]);
+                }
+            }
+
+            try{
+                return method.invoke(entry.connection, args);
+            }catch(InvocationTargetException e){
+                Throwable cause = e.getCause();
+                //connection exception class, the physical connection can't be trusted anymore
+                if(cause instanceof SQLException){
+                    String state = ((SQLException) cause).getSQLState();
+                    if(state != null && state.startsWith("08")){
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
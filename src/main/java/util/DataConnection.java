@@ -1,54 +1,110 @@
 package util;
 
-import java.io.File;
-import java.io.FileInputStream;
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
 public class DataConnection {
 
     private static Properties properties;
-    private static final String propertiesPath = "src/main/resources/application.properties";
-    private static final String finalPath = "D:/Project1/src/main/resources/application.properties";
+    private static final String propertiesPath = "application.properties";
 
 
+    //fails fast, a missing file would otherwise surface later as a pool with no url
     private static void loadProperties(){
-        properties = new Properties();
-
+        InputStream stream = DataConnection.class.getClassLoader().getResourceAsStream(propertiesPath);
+        if(stream == null){
+            throw new IllegalStateException(propertiesPath + " was not found on the classpath");
+        }
+        Properties loaded = new Properties();
         try{
-            //InputStream stream = new FileInputStream(new File(propertiesPath).getAbsolutePath());
-            InputStream stream = new FileInputStream(finalPath);
-            properties.load(stream);
+            try{
+                loaded.load(stream);
+            }finally{
+                stream.close();
+            }
         }catch(IOException e){
-            e.printStackTrace();
+            throw new IllegalStateException("Cannot read " + propertiesPath, e);
         }
+        properties = loaded;
     }
 
-    private static Connection instance;
+    private static ConnectionPool pool;
+    private static RoutingDataSource routing;
+    private static Connection legacy;
+    private static ConnectionPool legacyPool;
 
     private DataConnection(){
 
     }{}
 
-    public static Connection getInstance(){
+    /**
+     * Returns the process-wide connection pool, creating it from application.properties on first use
+     * @return The shared pool
+     * @throws IllegalStateException If application.properties is missing or unreadable, or its driver is not on the classpath
+     */
+    public static synchronized ConnectionPool getDataSource(){
         if(properties == null){
             loadProperties();
         }
 
-        if(instance == null){
+        if(pool == null || pool.isClosed()){
+            String driver = properties.getProperty("driver", "org.postgresql.Driver");
             try {
-                Class.forName("org.postgresql.Driver");
-                instance = DriverManager.getConnection(properties.getProperty("url"),
-                        properties.getProperty("username"),
-                        properties.getProperty("password"));
-            }catch(SQLException | ClassNotFoundException e){
-                e.printStackTrace();
+                Class.forName(driver);
+            }catch(ClassNotFoundException e){
+                throw new IllegalStateException("JDBC driver " + driver + " is not on the classpath", e);
+            }
+            pool = new ConnectionPool(properties);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the data source ObjectDao uses by default, the shared pool unless replica.1.url is configured,
+     * then a RoutingDataSource sending writes to the shared pool and reads to one pool per replica
+     * @return The shared pool or the shared routing data source
+     */
+    public static synchronized DataSource getRoutedDataSource(){
+        ConnectionPool primary = getDataSource();
+        if(properties.getProperty(RoutingDataSource.REPLICA_PREFIX + "1.url") == null){
+            return primary;
+        }
+
+        //rebuilt along with a closed primary pool
+        if(routing == null || routing.getPrimary() != primary){
+            if(routing != null){
+                for(DataSource replica:routing.getReplicas()){
+                    ((ConnectionPool) replica).close();
+                }
+            }
+            routing = new RoutingDataSource(primary, properties);
+        }
+        return routing;
+    }
+
+    /**
+     * Returns the one connection kept leased from the shared pool for legacy callers, which share it and never close it
+     * It takes a single pool permit for as long as it is open, and is leased again once closed or after the pool is rebuilt
+     * @return The shared legacy connection
+     * @throws IllegalStateException If application.properties or the driver is missing, or no connection could be borrowed
+     * @deprecated Use getDataSource() and close connections with try-with-resources
+     */
+    @Deprecated
+    public static synchronized Connection getInstance(){
+        ConnectionPool current = getDataSource();
+        try {
+            if(legacy == null || legacyPool != current || legacy.isClosed()){
+                legacy = current.getConnection();
+                legacyPool = current;
             }
+        }catch(SQLException e){
+            legacy = null;
+            throw new IllegalStateException("Cannot borrow a connection from the shared pool", e);
         }
-        return instance;
+        return legacy;
     }
 }
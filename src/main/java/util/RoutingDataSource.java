@@ -0,0 +1,427 @@
+package util;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A primary data source with read replicas
+ * getConnection always answers the primary, so anything unaware of routing keeps writing there,
+ * ObjectDao asks getReadConnection for plain reads, which go to a replica unless the calling thread is pinned,
+ * and getWriteConnection for writes
+ * A thread is pinned to the primary while it holds a Pin from usePrimary (UnitOfWork takes one),
+ * and for the read-your-writes window after each of its writes when one is configured
+ * <pre>
+ * RoutingDataSource routing = new RoutingDataSource(primaryPool, Arrays.asList(replica1, replica2),
+ *         RoutingDataSource.Selection.LEAST_BUSY, 2000);
+ * ObjectDao objectDao = new ObjectDao(routing);
+ * </pre>
+ */
+public class RoutingDataSource implements DataSource, AutoCloseable {
+
+    public static final String REPLICA_PREFIX = "replica.";
+    public static final String SELECTION = "routing.selection";
+    public static final String READ_YOUR_WRITES = "routing.readYourWritesMillis";
+
+    /**
+     * How a replica is picked for each read
+     */
+    public enum Selection {
+        /**
+         * Each replica in turn
+         */
+        ROUND_ROBIN,
+        /**
+         * The replica with the fewest connections handed out by this data source and not yet closed
+         */
+        LEAST_BUSY
+    }
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final Selection selection;
+    private final long readYourWritesNanos;
+
+    private final AtomicInteger[] busy;
+    private final AtomicLong[] replicaReads;
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final AtomicInteger next = new AtomicInteger();
+
+    //per thread, so one caller's writes never pin another caller's reads
+    private final ThreadLocal<int[]> pins = ThreadLocal.withInitial(() -> new int[1]);
+    private final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[]{Long.MIN_VALUE});
+
+
+    /**
+     * Routes reads round-robin without read-your-writes pinning
+     * @param primary The data source taking every write
+     * @param replicas The data sources taking reads, may be empty
+     */
+    public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas){
+        this(primary, replicas, Selection.ROUND_ROBIN, 0);
+    }
+
+    /**
+     * Routes to one new ConnectionPool per replica.N.url key of a property file, numbered from 1
+     * Each replica takes replica.N.username and replica.N.password, defaulting to the primary's, and the shared pool.* sizing
+     * @param primary The data source taking every write
+     * @param properties The loaded application properties, with routing.selection (round_robin or least_busy)
+     * and routing.readYourWritesMillis (default 0) as well
+     */
+    public RoutingDataSource(DataSource primary, Properties properties){
+        this(primary, replicaPools(properties),
+                Selection.valueOf(properties.getProperty(SELECTION, "round_robin").trim().toUpperCase(Locale.ROOT)),
+                Long.parseLong(properties.getProperty(READ_YOUR_WRITES, "0")));
+    }
+
+    private static List<ConnectionPool> replicaPools(Properties properties){
+        List<ConnectionPool> pools = new ArrayList<>();
+        for(int i = 1; properties.getProperty(REPLICA_PREFIX + i + ".url") != null; i++){
+            Properties replica = new Properties();
+            replica.putAll(properties);
+            for(String key:new String[]{"url", "username", "password"}){
+                String value = properties.getProperty(REPLICA_PREFIX + i + "." + key);
+                if(value != null){
+                    replica.setProperty(key, value);
+                }
+            }
+            pools.add(new ConnectionPool(replica));
+        }
+        return pools;
+    }
+
+    /**
+     * @param primary The data source taking every write
+     * @param replicas The data sources taking reads, may be empty
+     * @param selection How a replica is picked for each read
+     * @param readYourWritesMillis How long after a write the same thread keeps reading from the primary, 0 disables pinning
+     */
+    public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas, Selection selection, long readYourWritesMillis){
+
+        if(primary == null){
+            throw new IllegalArgumentException("primary must not be null");
+        }
+        if(readYourWritesMillis < 0){
+            throw new IllegalArgumentException("readYourWritesMillis must not be negative");
+        }
+
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.selection = selection;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+
+        this.busy = new AtomicInteger[this.replicas.size()];
+        this.replicaReads = new AtomicLong[this.replicas.size()];
+        for(int i = 0; i < busy.length; i++){
+            busy[i] = new AtomicInteger();
+            replicaReads[i] = new AtomicLong();
+        }
+    }
+
+
+    /**
+     * Borrows a primary connection, for writes and anything that must see the latest data
+     * @return A connection to the primary
+     * @throws SQLException If the primary cannot hand out a connection
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /**
+     * Borrows a primary connection for a write, starting the calling thread's read-your-writes window
+     * when it is borrowed and again when it is closed, so the window also covers a long running write
+     * @return A connection to the primary
+     * @throws SQLException If the primary cannot hand out a connection
+     */
+    public Connection getWriteConnection() throws SQLException {
+        markWritten();
+        Connection connection = primary.getConnection();
+        if(readYourWritesNanos == 0){
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new LeaseHandler(connection, this::markWritten));
+    }
+
+    /**
+     * Borrows a connection for a read, from a replica unless the calling thread is pinned to the primary
+     * A replica that fails to hand out a connection is passed over for the next one, then for the primary
+     * @return A replica connection, or a primary connection when pinned or without replicas
+     * @throws SQLException If neither a replica nor the primary can hand out a connection
+     */
+    public Connection getReadConnection() throws SQLException {
+
+        if(replicas.isEmpty() || isPinned()){
+            primaryReads.incrementAndGet();
+            return primary.getConnection();
+        }
+
+        int first = choose();
+        for(int i = 0; i < replicas.size(); i++){
+            int replica = (first + i) % replicas.size();
+            Connection connection;
+            try{
+                connection = replicas.get(replica).getConnection();
+            }catch(SQLException e){
+                continue;
+            }
+            replicaReads[replica].incrementAndGet();
+            AtomicInteger counter = busy[replica];
+            counter.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new LeaseHandler(connection, counter::decrementAndGet));
+        }
+
+        primaryReads.incrementAndGet();
+        return primary.getConnection();
+    }
+
+    /**
+     * Borrows a primary connection for a read that must not see replication lag, counted as a primary read
+     * @return A connection to the primary
+     * @throws SQLException If the primary cannot hand out a connection
+     */
+    public Connection getPrimaryReadConnection() throws SQLException {
+        primaryReads.incrementAndGet();
+        return primary.getConnection();
+    }
+
+    private int choose(){
+        if(selection == Selection.LEAST_BUSY){
+            //ties go round-robin so an idle system still spreads its reads
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            int best = start;
+            for(int i = 1; i < replicas.size(); i++){
+                int candidate = (start + i) % replicas.size();
+                if(busy[candidate].get() < busy[best].get()){
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+        return Math.floorMod(next.getAndIncrement(), replicas.size());
+    }
+
+
+    /**
+     * Sends the calling thread's reads to the primary until the pin is closed, pins nest
+     * Close the pin on the thread that took it
+     * @return The pin, close it to let reads go back to the replicas
+     */
+    public Pin usePrimary(){
+        pins.get()[0]++;
+        return new Pin();
+    }
+
+    /**
+     * Records a write by the calling thread, which starts its read-your-writes window
+     */
+    public void markWritten(){
+        if(readYourWritesNanos > 0){
+            lastWrite.get()[0] = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return True if reads on the calling thread currently go to the primary
+     */
+    public boolean isPinned(){
+        if(pins.get()[0] > 0){
+            return true;
+        }
+        long written = lastWrite.get()[0];
+        return written != Long.MIN_VALUE && System.nanoTime() - written < readYourWritesNanos;
+    }
+
+
+    public DataSource getPrimary(){
+        return primary;
+    }
+
+    public List<DataSource> getReplicas(){
+        return replicas;
+    }
+
+    public Selection getSelection(){
+        return selection;
+    }
+
+    /**
+     * @return Reads answered by the primary, because a thread was pinned, no replica was reachable or none are configured
+     */
+    public long getPrimaryReads(){
+        return primaryReads.get();
+    }
+
+    /**
+     * @param replica The index of a replica in getReplicas
+     * @return Reads answered by that replica
+     */
+    public long getReplicaReads(int replica){
+        return replicaReads[replica].get();
+    }
+
+    /**
+     * @param replica The index of a replica in getReplicas
+     * @return Connections to that replica handed out and not yet closed
+     */
+    public int getBusy(int replica){
+        return busy[replica].get();
+    }
+
+    /**
+     * Closes the primary and every replica that can be closed, such as a ConnectionPool
+     * Every source is closed even if one fails, the first failure is thrown with the rest suppressed
+     * @throws SQLException If a source fails to close, wrapping any failure that is not an SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        List<DataSource> sources = new ArrayList<>(replicas);
+        sources.add(primary);
+        for(DataSource source:sources){
+            if(!(source instanceof AutoCloseable)){
+                continue;
+            }
+            try{
+                ((AutoCloseable) source).close();
+            }catch(Exception e){
+                if(e instanceof InterruptedException){
+                    Thread.currentThread().interrupt();
+                }
+                if(failure == null){
+                    failure = e instanceof SQLException ? (SQLException) e : new SQLException("Cannot close " + source, e);
+                }else{
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if(failure != null){
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder reads = new StringBuilder();
+        for(int i = 0; i < replicaReads.length; i++){
+            reads.append(i == 0 ? "" : ", ").append(replicaReads[i].get());
+        }
+        return "RoutingDataSource{replicas=" + replicas.size() + ", selection=" + selection
+                + ", primaryReads=" + primaryReads.get() + ", replicaReads=[" + reads + "]}";
+    }
+
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if(iface.isInstance(this)){
+            return iface.cast(this);
+        }
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+
+    /**
+     * Keeps the calling thread's reads on the primary until closed
+     */
+    public final class Pin implements AutoCloseable {
+
+        private boolean closed;
+
+        private Pin(){
+
+        }
+
+        @Override
+        public void close(){
+            if(!closed){
+                closed = true;
+                pins.get()[0]--;
+            }
+        }
+    }
+
+
+    /**
+     * Passes every call through and runs a callback the first time the borrower closes the connection
+     */
+    private static final class LeaseHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private final Runnable onClose;
+        private boolean released;
+
+        LeaseHandler(Connection connection, Runnable onClose){
+            this.connection = connection;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            if(method.getName().equals("close") && !released){
+                released = true;
+                onClose.run();
+            }
+            try{
+                return method.invoke(connection, args);
+            }catch(InvocationTargetException e){
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Binds Java values to statement parameters so no value is ever concatenated into sql
+ */
+public final class SqlBinder {
+
+    private SqlBinder(){
+
+    }
+
+    /**
+     * Binds a value to a statement parameter
+     * @param stmt The statement
+     * @param index The 1-based parameter index
+     * @param value The value, chars are sent as single character strings
+     * @throws SQLException If the driver rejects the value
+     */
+    public static void bind(PreparedStatement stmt, int index, Object value) throws SQLException {
+        bind(stmt, index, value, value == null ? Object.class : value.getClass());
+    }
+
+    /**
+     * Binds a value to a statement parameter using the declared type for nulls
+     * @param stmt The statement
+     * @param index The 1-based parameter index
+     * @param value The value, may be null
+     * @param type The declared Java type of the value
+     * @throws SQLException If the driver rejects the value
+     */
+    public static void bind(PreparedStatement stmt, int index, Object value, Class<?> type) throws SQLException {
+
+        if(value == null){
+            stmt.setNull(index, sqlType(type));
+        }else if(value instanceof Character){
+            stmt.setString(index, value.toString());
+        }else{
+            stmt.setObject(index, value);
+        }
+    }
+
+    /**
+     * @param type A Java type
+     * @return The java.sql.Types code used when binding a null of that type
+     */
+    public static int sqlType(Class<?> type){
+        if(type == String.class || type == char.class || type == Character.class){
+            return Types.VARCHAR;
+        }else if(type == int.class || type == Integer.class){
+            return Types.INTEGER;
+        }else if(type == long.class || type == Long.class){
+            return Types.BIGINT;
+        }else if(type == double.class || type == Double.class){
+            return Types.DOUBLE;
+        }else if(type == float.class || type == Float.class){
+            return Types.REAL;
+        }else if(type == short.class || type == Short.class){
+            return Types.SMALLINT;
+        }else if(type == boolean.class || type == Boolean.class){
+            return Types.BOOLEAN;
+        }
+        return Types.OTHER;
+    }
+}
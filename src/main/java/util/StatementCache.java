@@ -0,0 +1,215 @@
+package util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of PreparedStatements belonging to one physical connection
+ * Statements handed out are proxies, closing one clears its parameters, restores its fetch size, max rows and query timeout
+ * and keeps it for the next caller
+ * Only ever used by the thread currently holding the connection, so it needs no locking of its own
+ */
+final class StatementCache {
+
+    private final Connection connection;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    //access ordered, so the eldest entry is always the least recently used statement
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * @param connection The physical connection statements are prepared on
+     * @param maxSize The maximum number of statements kept open
+     * @param hits Shared counter incremented on every cache hit
+     * @param misses Shared counter incremented on every cache miss
+     */
+    StatementCache(Connection connection, int maxSize, AtomicLong hits, AtomicLong misses){
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns a cached statement for the sql, preparing and caching it on a miss
+     * @param sql The statement text
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or NO_GENERATED_KEYS, or -1 for the plain overload
+     * @return A statement proxy, closing it returns the statement to the cache
+     * @throws SQLException If the driver cannot prepare the statement
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+
+        String key = autoGeneratedKeys + ":" + sql;
+        CachedStatement cached = statements.get(key);
+
+        if(cached != null && !cached.inUse){
+            if(!cached.statement.isClosed()){
+                hits.incrementAndGet();
+                cached.inUse = true;
+                return cached.proxy;
+            }
+            //the driver closed it behind our back, prepare it again
+            statements.remove(key);
+            cached = null;
+        }
+
+        misses.incrementAndGet();
+        PreparedStatement statement = autoGeneratedKeys < 0
+                ? connection.prepareStatement(sql)
+                : connection.prepareStatement(sql, autoGeneratedKeys);
+
+        //the same sql is already open further up the stack, hand out a plain statement
+        if(cached != null){
+            return statement;
+        }
+
+        cached = new CachedStatement(statement);
+        cached.inUse = true;
+        statements.put(key, cached);
+        evict();
+        return cached.proxy;
+    }
+
+    private void evict(){
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while(statements.size() > maxSize && iterator.hasNext()){
+            CachedStatement eldest = iterator.next();
+            iterator.remove();
+            eldest.evicted = true;
+            if(!eldest.inUse){
+                eldest.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Physically closes every cached statement
+     */
+    void clear(){
+        List<CachedStatement> all = new ArrayList<>(statements.values());
+        statements.clear();
+        for(CachedStatement cached:all){
+            cached.closeQuietly();
+        }
+    }
+
+    int size(){
+        return statements.size();
+    }
+
+
+    /**
+     * A physical statement plus the proxy callers see
+     */
+    private static final class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+        private boolean evicted;
+
+        //the driver defaults, captured before a borrower first changes them
+        private boolean tuned;
+        private int defaultFetchSize;
+        private int defaultMaxRows;
+        private int defaultQueryTimeout;
+
+        CachedStatement(PreparedStatement statement){
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            switch(method.getName()){
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+
+            if(!inUse){
+                throw new SQLException("Statement has been closed");
+            }
+
+            switch(method.getName()){
+                case "setFetchSize":
+                case "setMaxRows":
+                case "setLargeMaxRows":
+                case "setQueryTimeout":
+                    if(!tuned){
+                        defaultFetchSize = statement.getFetchSize();
+                        defaultMaxRows = statement.getMaxRows();
+                        defaultQueryTimeout = statement.getQueryTimeout();
+                        tuned = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            try{
+                return method.invoke(statement, args);
+            }catch(InvocationTargetException e){
+                throw e.getCause();
+            }
+        }
+
+        private void release(){
+            if(!inUse){
+                return;
+            }
+            inUse = false;
+            if(evicted){
+                closeQuietly();
+                return;
+            }
+            //leave nothing behind for the next borrower of this statement
+            try{
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+                if(tuned){
+                    //max rows first, some drivers reject a fetch size above it
+                    statement.setMaxRows(defaultMaxRows);
+                    statement.setFetchSize(defaultFetchSize);
+                    statement.setQueryTimeout(defaultQueryTimeout);
+                    tuned = false;
+                }
+            }catch(SQLException e){
+                evicted = true;
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly(){
+            try{
+                statement.close();
+            }catch(SQLException ignored){
+                //the statement is being dropped regardless
+            }
+        }
+    }
+}
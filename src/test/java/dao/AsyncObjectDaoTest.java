@@ -0,0 +1,105 @@
+package dao;
+
+import model.Item;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import util.ConnectionPool;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncObjectDaoTest {
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ConnectionPool("jdbc:h2:mem:async;DB_CLOSE_DELAY=-1", "sa", "", 3);
+        objectDao = new ObjectDao(pool);
+        objectDao.createTable(Item.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        objectDao.dropTable(Item.class);
+        pool.close();
+    }
+
+    @Test
+    public void concurrencyDefaultsToThePoolSize(){
+        try(AsyncObjectDao async = new AsyncObjectDao(objectDao)){
+            assertEquals(3, async.getConcurrency());
+            assertEquals(3000, async.getMaxPending());
+        }
+    }
+
+    @Test
+    public void manyCallsNeverExceedTheConcurrency() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try(AsyncObjectDao async = new AsyncObjectDao(objectDao, 2)){
+            List<CompletableFuture<Item>> created = new ArrayList<>();
+            for(int i = 0; i < 50; i++){
+                Item item = new Item("item" + i, i, i);
+                created.add(async.submit(dao -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try{
+                        dao.createObject(item);
+                        return item;
+                    }finally{
+                        running.decrementAndGet();
+                    }
+                }));
+            }
+            CompletableFuture.allOf(created.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+            assertEquals(50, async.readAllObjects(Item.class).get(30, TimeUnit.SECONDS).size());
+        }
+        assertTrue(peak.get() <= 2);
+    }
+
+    @Test
+    public void failuresCompleteTheFutureWithTheOriginalException() throws Exception {
+        try(AsyncObjectDao async = new AsyncObjectDao(objectDao, 1)){
+            SQLException failure = new SQLException("boom");
+            async.submit(dao -> {throw failure;}).get(30, TimeUnit.SECONDS);
+            fail("a failed call completed normally");
+        }catch(ExecutionException e){
+            assertEquals("boom", e.getCause().getMessage());
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+    }
+
+    @Test
+    public void callsBeyondMaxPendingAreRejected() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try(AsyncObjectDao async = new AsyncObjectDao(objectDao, 1, 2)){
+            CompletableFuture<Object> first = async.submit(dao -> release.await(30, TimeUnit.SECONDS));
+            CompletableFuture<Object> second = async.submit(dao -> release.await(30, TimeUnit.SECONDS));
+            CompletableFuture<Object> third = async.submit(dao -> true);
+            try{
+                third.get(30, TimeUnit.SECONDS);
+                fail("a third pending call was accepted");
+            }catch(ExecutionException e){
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            first.get(30, TimeUnit.SECONDS);
+            second.get(30, TimeUnit.SECONDS);
+            //the slots came back
+            assertEquals(Boolean.TRUE, async.submit(dao -> true).get(30, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package dao;
+
+import model.Item;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import util.ConnectionPool;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * H2 has no COPY protocol, so these cover the fallback to batched inserts
+ */
+public class CopyObjectsTest {
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ConnectionPool("jdbc:h2:mem:copy;DB_CLOSE_DELAY=-1", "sa", "", 2);
+        objectDao = new ObjectDao(pool);
+        objectDao.createTable(Item.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        objectDao.dropTable(Item.class);
+        pool.close();
+    }
+
+    @Test
+    public void copyIsOnlySupportedOnPostgres() throws Exception {
+        try(Connection connection = pool.getConnection()){
+            assertFalse(CopyLoader.isSupported(connection));
+        }
+    }
+
+    @Test
+    public void textCopyFallsBackToBatchedInserts() throws Exception {
+        List<Item> items = items(250);
+        objectDao.setBatchSize(100);
+
+        assertEquals(250, objectDao.copyObjects(Item.class, items.iterator(), CopyFormat.TEXT));
+
+        List<Item> read = objectDao.readAllObjects(Item.class);
+        assertEquals(250, read.size());
+        //the fallback writes generated keys back, which copy itself cannot
+        for(Item item:items){
+            assertTrue(item.id > 0);
+        }
+    }
+
+    @Test
+    public void binaryStreamCopyFallsBackToo() throws Exception {
+        Item tabbed = new Item("tab\there\nand a line", 3, 1.5);
+        assertEquals(2, objectDao.copyObjects(Item.class, Arrays.asList(tabbed, new Item(null, 0, 0)).stream(), CopyFormat.BINARY));
+
+        Item read = (Item) objectDao.readObject(Item.class, tabbed.id);
+        assertEquals("tab\there\nand a line", read.name);
+        assertEquals(3, read.quantity);
+        assertEquals(1.5, read.price, 0);
+    }
+
+    @Test
+    public void emptyCopyLoadsNothing() throws Exception {
+        assertEquals(0, objectDao.copyObjects(Item.class, Collections.<Item>emptyIterator(), CopyFormat.TEXT));
+    }
+
+    private static List<Item> items(int count){
+        List<Item> items = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            items.add(new Item("item" + i, i, i / 4.0));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,176 @@
+package dao;
+
+import model.Item;
+import org.junit.After;
+import org.junit.Test;
+import util.ConnectionPool;
+import util.RoutingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Routes ObjectDao reads across a primary and two replicas, each its own in-memory H2 database
+ * Every database holds one Item named after it, so a read shows where it was answered
+ */
+public class RoutingTest {
+
+    private static final long READ_YOUR_WRITES_MILLIS = 200;
+
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private RoutingDataSource routing;
+
+    @After
+    public void tearDown() throws Exception {
+        for(ConnectionPool pool:pools){
+            if(!pool.isClosed()){
+                try(Connection connection = pool.getConnection(); Statement stmt = connection.createStatement()){
+                    stmt.execute("drop table if exists \"Item\"");
+                }
+            }
+        }
+        routing.close();
+    }
+
+    @Test
+    public void roundRobinAlternatesReplicas() throws Exception {
+        ObjectDao objectDao = objectDao(databases("rr", RoutingDataSource.Selection.ROUND_ROBIN, 0));
+
+        assertEquals("rr-replica1", owner(objectDao));
+        assertEquals("rr-replica2", owner(objectDao));
+        assertEquals("rr-replica1", owner(objectDao));
+        assertEquals(2, routing.getReplicaReads(0));
+        assertEquals(1, routing.getReplicaReads(1));
+        assertEquals(0, routing.getPrimaryReads());
+    }
+
+    @Test
+    public void leastBusyAvoidsAHeldReplica() throws Exception {
+        ObjectDao objectDao = objectDao(databases("lb", RoutingDataSource.Selection.LEAST_BUSY, 0));
+
+        //whichever replica the held connection lands on, every read meanwhile goes to the other
+        Connection held = routing.getReadConnection();
+        try{
+            int busy = routing.getBusy(0) == 1 ? 0 : 1;
+            assertEquals(1, routing.getBusy(busy));
+            String idle = "lb-replica" + (2 - busy);
+            for(int i = 0; i < 4; i++){
+                assertEquals(idle, owner(objectDao));
+            }
+        }finally{
+            held.close();
+        }
+        assertEquals(0, routing.getBusy(0));
+        assertEquals(0, routing.getBusy(1));
+    }
+
+    @Test
+    public void failedReplicasFallBackToThePrimary() throws Exception {
+        ObjectDao objectDao = objectDao(databases("fo", RoutingDataSource.Selection.ROUND_ROBIN, 0));
+
+        ((ConnectionPool) routing.getReplicas().get(0)).close();
+        for(int i = 0; i < 3; i++){
+            assertEquals("fo-replica2", owner(objectDao));
+        }
+
+        ((ConnectionPool) routing.getReplicas().get(1)).close();
+        assertEquals("fo-primary", owner(objectDao));
+        assertEquals(1, routing.getPrimaryReads());
+    }
+
+    @Test
+    public void pinsAndWritesKeepReadsOnThePrimary() throws Exception {
+        ObjectDao objectDao = objectDao(databases("pin", RoutingDataSource.Selection.ROUND_ROBIN, READ_YOUR_WRITES_MILLIS));
+
+        RoutingDataSource.Pin pin = routing.usePrimary();
+        try{
+            assertTrue(routing.isPinned());
+            assertEquals("pin-primary", owner(objectDao));
+        }finally{
+            pin.close();
+        }
+        assertTrue(owner(objectDao).startsWith("pin-replica"));
+
+        //a write pins reads for the window, then they go back to the replicas
+        objectDao.createObject(new Item("second", 1, 1));
+        assertTrue(routing.isPinned());
+        assertEquals(2, objectDao.readAllObjects(Item.class).size());
+        Thread.sleep(READ_YOUR_WRITES_MILLIS * 2);
+        assertFalse(routing.isPinned());
+        assertEquals(1, objectDao.readAllObjects(Item.class).size());
+
+        //another thread never sees this thread's window
+        objectDao.createObject(new Item("third", 1, 1));
+        boolean[] pinnedElsewhere = new boolean[1];
+        Thread other = new Thread(() -> pinnedElsewhere[0] = routing.isPinned());
+        other.start();
+        other.join();
+        assertTrue(routing.isPinned());
+        assertFalse(pinnedElsewhere[0]);
+    }
+
+    @Test
+    public void cacheRefillsAfterAWriteComeFromThePrimary() throws Exception {
+        ObjectDao objectDao = objectDao(databases("cache", RoutingDataSource.Selection.ROUND_ROBIN, 0));
+        //entries never expire, so a stale row cached now would stay for good
+        objectDao.getEntityCache().configure(Item.class, new CacheSettings(100, 0));
+        assertEquals("cache-replica1", owner(objectDao));
+
+        //the replicas never see this write, as if they lagged forever
+        Item renamed = new Item("renamed", 1, 1);
+        renamed.id = 1;
+        objectDao.updateObject(renamed);
+
+        assertEquals("renamed", owner(objectDao));
+        assertEquals(1, routing.getPrimaryReads());
+        //once refilled the key is served from the cache again
+        assertEquals("renamed", owner(objectDao));
+        assertEquals(1, routing.getPrimaryReads());
+
+        //a full read after the write is refilled from the primary as well
+        assertEquals("renamed", objectDao.readAllObjects(Item.class).get(0).name);
+        assertEquals(2, routing.getPrimaryReads());
+    }
+
+    @Test
+    public void asyncConcurrencyFollowsThePrimaryPool() throws Exception {
+        ObjectDao objectDao = objectDao(databases("async", RoutingDataSource.Selection.ROUND_ROBIN, 0));
+        try(AsyncObjectDao async = new AsyncObjectDao(objectDao)){
+            assertEquals(2, async.getConcurrency());
+        }
+    }
+
+    //a primary and two replicas, each seeded with one Item named after it
+    private RoutingDataSource databases(String name, RoutingDataSource.Selection selection, long readYourWritesMillis) throws Exception {
+        ConnectionPool primary = seeded(name + "-primary");
+        List<ConnectionPool> replicas = Arrays.asList(seeded(name + "-replica1"), seeded(name + "-replica2"));
+        routing = new RoutingDataSource(primary, replicas, selection, readYourWritesMillis);
+        return routing;
+    }
+
+    private ConnectionPool seeded(String database) throws Exception {
+        ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1", "sa", "", 2);
+        pools.add(pool);
+        objectDao(pool).createObject(new Item(database, 1, 1));
+        return pool;
+    }
+
+    //no shared cache, every read has to reach a database
+    private static ObjectDao objectDao(DataSource dataSource){
+        ObjectDao objectDao = new ObjectDao(dataSource);
+        objectDao.setEntityCache(new EntityCache());
+        return objectDao;
+    }
+
+    private static String owner(ObjectDao objectDao) throws Exception {
+        return ((Item) objectDao.readObject(Item.class, 1)).name;
+    }
+}
@@ -0,0 +1,84 @@
+package dao;
+
+import model.Item;
+import model.Tag;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import util.ConnectionPool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaRegistryTest {
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+
+    @Before
+    public void setUp(){
+        pool = new ConnectionPool("jdbc:h2:mem:schema;DB_CLOSE_DELAY=-1", "sa", "", 2);
+        objectDao = new ObjectDao(pool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try(Connection connection = pool.getConnection(); Statement stmt = connection.createStatement()){
+            stmt.execute("drop table if exists \"Tag\"");
+            stmt.execute("drop table if exists \"Item\"");
+        }
+        pool.close();
+    }
+
+    @Test
+    public void firstInsertCreatesTheTableOnce() throws Exception {
+        SchemaRegistry registry = objectDao.getSchemaRegistry();
+        assertFalse(registry.isVerified(Item.class));
+        objectDao.createObject(new Item("a", 1, 1));
+        assertTrue(registry.isVerified(Item.class));
+        objectDao.createObject(new Item("b", 2, 2));
+        assertEquals(2, objectDao.readAllObjects(Item.class).size());
+    }
+
+    @Test
+    public void constraintViolationsKeepTheTableVerified() throws Exception {
+        objectDao.createObject(new Tag("orm", 1));
+        try{
+            objectDao.createObject(new Tag("orm", 2));
+            fail("a duplicate unique value was inserted");
+        }catch(SQLException expected){
+            assertTrue(objectDao.getSchemaRegistry().isVerified(Tag.class));
+        }
+        try{
+            objectDao.createObjects(Arrays.asList(new Tag("jdbc", 1), new Tag("jdbc", 1)));
+            fail("a duplicate unique value was inserted");
+        }catch(SQLException expected){
+            assertTrue(objectDao.getSchemaRegistry().isVerified(Tag.class));
+        }
+    }
+
+    @Test
+    public void tableDroppedBehindTheRegistryIsCreatedAgain() throws Exception {
+        objectDao.createObject(new Item("a", 1, 1));
+        try(Connection connection = pool.getConnection(); Statement stmt = connection.createStatement()){
+            stmt.execute("drop table \"Item\"");
+        }
+
+        try{
+            objectDao.createObject(new Item("b", 2, 2));
+            fail("the insert found a dropped table");
+        }catch(SQLException expected){
+            assertTrue(SchemaRegistry.isMissingTable(expected));
+            assertFalse(objectDao.getSchemaRegistry().isVerified(Item.class));
+        }
+        objectDao.createObject(new Item("c", 3, 3));
+        assertEquals(1, objectDao.readAllObjects(Item.class).size());
+    }
+}
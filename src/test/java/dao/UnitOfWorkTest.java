@@ -0,0 +1,163 @@
+package dao;
+
+import metrics.Operation;
+import metrics.OperationEvent;
+import model.Item;
+import model.Member;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import util.ConnectionPool;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UnitOfWorkTest {
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new ConnectionPool("jdbc:h2:mem:work;DB_CLOSE_DELAY=-1", "sa", "", 4);
+        objectDao = new ObjectDao(pool);
+        objectDao.createTable(Member.class);
+        objectDao.createTable(Item.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        objectDao.dropTable(Member.class);
+        objectDao.dropTable(Item.class);
+        pool.close();
+    }
+
+    @Test
+    public void commitWritesEverythingAndKeysComeBack() throws Exception {
+        Member ann = new Member("ann@example.com", "Ann");
+        Item pen = new Item("pen", 1, 2.5);
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(ann);
+            work.create(pen);
+            assertEquals(2, work.getPendingCount());
+            assertEquals(2, work.commit());
+        }
+        assertTrue(ann.id > 0 && pen.id > 0);
+        assertEquals("Ann", ((Member) objectDao.readObject(Member.class, ann.id)).name);
+    }
+
+    @Test
+    public void deleteQueuedBeforeAnInsertRunsFirst() throws Exception {
+        Member old = new Member("bob@example.com", "Old Bob");
+        objectDao.createObject(old);
+
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.delete(old);
+            work.create(new Member("bob@example.com", "New Bob"));
+            work.commit();
+        }
+        List<Member> members = objectDao.readAllObjects(Member.class);
+        assertEquals(1, members.size());
+        assertEquals("New Bob", members.get(0).name);
+    }
+
+    @Test
+    public void updateQueuedAfterAnInsertSeesItsKey() throws Exception {
+        Member cat = new Member("cat@example.com", "Cat");
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(cat);
+            work.flush();
+            cat.name = "Catherine";
+            work.update(cat);
+            work.commit();
+        }
+        assertEquals("Catherine", ((Member) objectDao.readObject(Member.class, cat.id)).name);
+    }
+
+    @Test
+    public void readsOutsideTheUnitOfWorkSeeOnlyCommittedRows() throws Exception {
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(new Member("dan@example.com", "Dan"));
+            assertEquals(0, objectDao.readAllObjects(Member.class).size());
+            work.flush();
+            assertEquals(0, objectDao.readAllObjects(Member.class).size());
+            work.commit();
+        }
+        assertEquals(1, objectDao.readAllObjects(Member.class).size());
+    }
+
+    @Test
+    public void failureRollsBackEveryStep() throws Exception {
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(new Item("kept only on success", 1, 1));
+            work.create(new Member("eve@example.com", "Eve"));
+            work.create(new Member("eve@example.com", "Eve again"));
+            try{
+                work.commit();
+                fail("a duplicate unique value was committed");
+            }catch(SQLException expected){
+                assertTrue(work.isFinished());
+            }
+        }
+        assertEquals(0, objectDao.readAllObjects(Item.class).size());
+        assertEquals(0, objectDao.readAllObjects(Member.class).size());
+    }
+
+    @Test
+    public void closingWithoutCommitRollsBack() throws Exception {
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(new Item("discarded", 1, 1));
+            work.flush();
+        }
+        assertEquals(0, objectDao.readAllObjects(Item.class).size());
+    }
+
+    @Test
+    public void everyFlushedClassReportsAnEvent() throws Exception {
+        List<OperationEvent> events = new ArrayList<>();
+        objectDao.setOperationListener(events::add);
+        Member fay = new Member("fay@example.com", "Fay");
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(fay);
+            work.create(new Item("cup", 2, 3));
+            work.create(new Item("mug", 1, 4));
+            work.flush();
+            fay.name = "Faye";
+            work.update(fay);
+            work.delete(fay);
+            work.commit();
+        }
+        assertEquals(4, events.size());
+        assertEquals(Operation.BATCH_INSERT, events.get(0).getOperation());
+        assertEquals(Member.class, events.get(0).getEntityClass());
+        assertEquals(Operation.BATCH_INSERT, events.get(1).getOperation());
+        assertEquals(2, events.get(1).getRows());
+        assertEquals(Operation.UPDATE, events.get(2).getOperation());
+        assertEquals(Operation.DELETE_MANY, events.get(3).getOperation());
+        assertEquals(1, events.get(3).getRows());
+        for(OperationEvent event:events){
+            assertFalse(event.isFailed());
+        }
+    }
+
+    @Test
+    public void failedFlushReportsTheFailure() throws Exception {
+        List<OperationEvent> events = new ArrayList<>();
+        objectDao.setOperationListener(events::add);
+        try(UnitOfWork work = objectDao.beginUnitOfWork()){
+            work.create(new Member("gil@example.com", "Gil"));
+            work.create(new Member("gil@example.com", "Gil again"));
+            work.commit();
+            fail("a duplicate unique value was committed");
+        }catch(SQLException expected){
+            assertEquals(1, events.size());
+            assertTrue(events.get(0).isFailed());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dao;
+
+import model.Item;
+import model.Member;
+import model.Tag;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import util.ConnectionPool;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpsertTest {
+
+    private ConnectionPool pool;
+    private ObjectDao objectDao;
+
+    @Before
+    public void setUp(){
+        pool = new ConnectionPool("jdbc:h2:mem:upsert;DB_CLOSE_DELAY=-1", "sa", "", 2);
+        objectDao = new ObjectDao(pool);
+        objectDao.setEntityCache(new EntityCache());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try(Connection connection = pool.getConnection(); Statement stmt = connection.createStatement()){
+            stmt.execute("drop table if exists \"Tag\"");
+            stmt.execute("drop table if exists \"Member\"");
+            stmt.execute("drop table if exists \"Item\"");
+        }
+        pool.close();
+    }
+
+    @Test
+    public void keylessEntityUpsertsOnItsUniqueColumn() throws Exception {
+        //a batch of new rows, then the same names again as updates
+        assertEquals(2, objectDao.upsertAll(Arrays.asList(new Tag("orm", 1), new Tag("jdbc", 1))));
+        assertEquals(2, objectDao.readAllObjects(Tag.class).size());
+
+        objectDao.upsertAll(Arrays.asList(new Tag("orm", 5), new Tag("sql", 1)));
+        assertEquals(3, objectDao.readAllObjects(Tag.class).size());
+
+        objectDao.upsert(new Tag("jdbc", 7));
+        List<Tag> tags = objectDao.query(Query.from(Tag.class).orderBy("name"));
+        assertEquals(3, tags.size());
+        assertEquals(7, tags.get(0).uses);
+        assertEquals(5, tags.get(1).uses);
+        assertEquals(1, tags.get(2).uses);
+    }
+
+    @Test
+    public void uniqueColumnUpsertWritesTheKeyBack() throws Exception {
+        Member first = new Member("a@example.com", "first");
+        objectDao.upsert(first);
+        assertTrue(first.id > 0);
+
+        Member again = new Member("a@example.com", "renamed");
+        objectDao.upsert(again);
+        assertEquals(first.id, again.id);
+        assertEquals("renamed", ((Member) objectDao.readObject(Member.class, first.id)).name);
+    }
+
+    @Test
+    public void explicitKeysAdvanceTheSequence() throws Exception {
+        Item pinned = new Item("pinned", 1, 1);
+        pinned.id = 5;
+        Item other = new Item("other", 1, 1);
+        other.id = 3;
+        objectDao.upsertAll(Arrays.asList(pinned, other));
+
+        //a plain insert must not be handed a key the upsert already used
+        Item next = new Item("next", 1, 1);
+        objectDao.createObject(next);
+        assertEquals(6, next.id);
+
+        //a smaller explicit key never moves the sequence back
+        Item low = new Item("low", 1, 1);
+        low.id = 1;
+        objectDao.upsert(low);
+        Item last = new Item("last", 1, 1);
+        objectDao.createObject(last);
+        assertEquals(7, last.id);
+        assertEquals(5, objectDao.readAllObjects(Item.class).size());
+    }
+
+    @Test
+    public void upsertReplacesTheCachedRow() throws Exception {
+        objectDao.getEntityCache().configure(Item.class, new CacheSettings(100, 0));
+        Item item = new Item("cached", 1, 1);
+        objectDao.createObject(item);
+        assertEquals(1, ((Item) objectDao.readObject(Item.class, item.id)).quantity);
+
+        Item changed = new Item("cached", 9, 1);
+        changed.id = item.id;
+        objectDao.upsert(changed);
+        assertEquals(9, ((Item) objectDao.readObject(Item.class, item.id)).quantity);
+    }
+}
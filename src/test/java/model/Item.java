@@ -0,0 +1,39 @@
+package model;
+
+import annotations.Column;
+import annotations.PrimaryKey;
+
+/**
+ * Test entity with a serial key and a column of the common types
+ */
+public class Item {
+
+    @PrimaryKey
+    public int id;
+
+    @Column
+    public String name;
+
+    @Column
+    public int quantity;
+
+    @Column
+    public double price;
+
+    public Item(){
+    }
+
+    public Item(String name, int quantity, double price){
+        this.name = name;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    public int returnPKeyG(){
+        return id;
+    }
+
+    public void returnPKeyS(int id){
+        this.id = id;
+    }
+}
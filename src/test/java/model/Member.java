@@ -0,0 +1,37 @@
+package model;
+
+import annotations.Column;
+import annotations.PrimaryKey;
+import annotations.Unique;
+
+/**
+ * Test entity with a serial key and a unique email
+ */
+public class Member {
+
+    @PrimaryKey
+    public int id;
+
+    @Column
+    @Unique
+    public String email;
+
+    @Column
+    public String name;
+
+    public Member(){
+    }
+
+    public Member(String email, String name){
+        this.email = email;
+        this.name = name;
+    }
+
+    public int returnPKeyG(){
+        return id;
+    }
+
+    public void returnPKeyS(int id){
+        this.id = id;
+    }
+}
@@ -0,0 +1,25 @@
+package model;
+
+import annotations.Column;
+import annotations.Unique;
+
+/**
+ * Test entity without a primary key, identified only by its unique name
+ */
+public class Tag {
+
+    @Column
+    @Unique
+    public String name;
+
+    @Column
+    public int uses;
+
+    public Tag(){
+    }
+
+    public Tag(String name, int uses){
+        this.name = name;
+        this.uses = uses;
+    }
+}
@@ -0,0 +1,168 @@
+package util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp(){
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1");
+        properties.setProperty("username", "sa");
+        properties.setProperty("password", "");
+        properties.setProperty(ConnectionPool.MAX_SIZE, "2");
+        properties.setProperty(ConnectionPool.ACQUIRE_TIMEOUT, "200");
+        pool = new ConnectionPool(properties);
+    }
+
+    @After
+    public void tearDown(){
+        pool.close();
+    }
+
+    @Test
+    public void closedConnectionsAreReused() throws SQLException {
+        for(int i = 0; i < 5; i++){
+            try(Connection connection = pool.getConnection(); Statement stmt = connection.createStatement()){
+                stmt.execute("select 1");
+            }
+        }
+        assertEquals(1, pool.getTotalConnections());
+        assertEquals(1, pool.getIdleConnections());
+        assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    public void borrowingPastMaxSizeTimesOut() throws SQLException {
+        try(Connection first = pool.getConnection(); Connection second = pool.getConnection()){
+            assertEquals(2, pool.getActiveConnections());
+            try{
+                pool.getConnection().close();
+                fail("a third connection was handed out");
+            }catch(SQLTimeoutException expected){
+                assertEquals(1, pool.getTimeoutCount());
+            }
+            assertFalse(first.isClosed() || second.isClosed());
+        }
+        //the permits came back with the connections
+        pool.getConnection().close();
+    }
+
+    @Test
+    public void returnedConnectionCannotBeUsed() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        assertTrue(connection.isClosed());
+        try{
+            connection.createStatement();
+            fail("a returned connection still worked");
+        }catch(SQLException expected){
+            //the physical connection belongs to the next borrower now
+        }
+        //closing twice returns it only once
+        connection.close();
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    @Test
+    public void concurrentBorrowersNeverExceedMaxSize() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        try{
+            List<Future<?>> borrowers = new ArrayList<>();
+            for(int i = 0; i < 8; i++){
+                borrowers.add(threads.submit(() -> {
+                    start.await();
+                    for(int j = 0; j < 20; j++){
+                        try(Connection connection = borrowPatiently()){
+                            peak.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+                            try(Statement stmt = connection.createStatement()){
+                                stmt.execute("select 1");
+                            }
+                            inUse.decrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for(Future<?> borrower:borrowers){
+                borrower.get(30, TimeUnit.SECONDS);
+            }
+        }finally{
+            threads.shutdownNow();
+        }
+        assertTrue(peak.get() <= 2);
+        assertTrue(pool.getTotalConnections() <= 2);
+        assertEquals(8 * 20, pool.getAcquireCount());
+    }
+
+    @Test
+    public void closingThePoolRejectsBorrowers(){
+        pool.close();
+        assertTrue(pool.isClosed());
+        try{
+            pool.getConnection();
+            fail("a closed pool handed out a connection");
+        }catch(SQLException expected){
+            assertEquals(0, pool.getTotalConnections());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void legacyInstanceHoldsOneSharedLease() throws SQLException {
+        //src/test/resources/application.properties points the shared pool at H2 with two connections
+        ConnectionPool shared = DataConnection.getDataSource();
+        Connection legacy = DataConnection.getInstance();
+        for(int i = 0; i < 10; i++){
+            assertSame(legacy, DataConnection.getInstance());
+        }
+        assertEquals(1, shared.getActiveConnections());
+        //the other permit is still free for everyone else
+        shared.getConnection().close();
+
+        legacy.close();
+        Connection replaced = DataConnection.getInstance();
+        assertFalse(replaced.isClosed());
+        assertEquals(1, shared.getActiveConnections());
+        shared.close();
+    }
+
+    //the test measures the cap, not the timeout, so keep retrying until a permit frees up
+    private Connection borrowPatiently() throws SQLException {
+        while(true){
+            try{
+                return pool.getConnection();
+            }catch(SQLTimeoutException e){
+                //another borrower held on for longer than the short test timeout
+            }
+        }
+    }
+}